@@ -0,0 +1,216 @@
+package alphaBeta;
+
+import boardgame.Server;
+import omweso.CCBoardState;
+import omweso.CCInitOptimizer;
+import omweso.CCMove;
+import omweso.CCOpeningBook;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/* Builds an opening book for CCOpeningBook, then times lookups in it.
+ *
+ * The seeds are placed by CCInitOptimizer, with a long budget, for each
+ * seat. The pit moves are then covered for the first few plies of the
+ * games starting from our setup against each known opponent setup: the
+ * book's own setup for the other seat, and any setups found in server
+ * logs, since most opponents place their seeds the same way every game.
+ * Our moves are found by a fixed-depth alphaBetaPlayer search and only
+ * the chosen one is followed; every reply of the opponent is followed.
+ *
+ * java alphaBeta.BookGenerator [-o file] [-p plies] [-d depth] [-i ms] [-l dir] [-b] */
+public class BookGenerator {
+
+    static private final String DEFAULT_FILE = "omweso.book";
+    static private final int DEFAULT_PLIES = 4; //Pit plies from the start of the game covered by the book
+    static private final int DEFAULT_DEPTH = 10; //Depth searched for each of our book moves
+    static private final long DEFAULT_INIT_TIME = 60000; //Optimizer time for each setup, unlike the game no clock is running
+
+    private final Map<Long, CCMove> moves = new HashMap<Long, CCMove>(); //Book moves by CCOpeningBook.key
+    private final alphaBetaPlayer player = new alphaBetaPlayer("book");
+    private final int plies;
+    private CCOpeningBook book; //Followed instead of searching when benchmarking an existing book
+    private final List<CCBoardState> positions = new ArrayList<CCBoardState>(); //Positions with a book move, for the benchmark
+
+    private BookGenerator(int plies, int depth){
+        this.plies = plies;
+        player.setMaxDepth(depth);
+        player.setMoveTime(Long.MAX_VALUE / 4); //Only the depth limits the search
+        player.setPonderingEnabled(false);
+    }
+
+    public static void main(String[] args){
+        File file = new File(DEFAULT_FILE);
+        int plies = DEFAULT_PLIES;
+        int depth = DEFAULT_DEPTH;
+        long init_time = DEFAULT_INIT_TIME;
+        File log_dir = new File(Server.LOG_DIR);
+        boolean bench_only = false;
+        try{
+            for(int i = 0; i < args.length; i++){
+                if(args[i].equals("-o")) file = new File(args[++i]);
+                else if(args[i].equals("-p")) plies = Integer.parseInt(args[++i]);
+                else if(args[i].equals("-d")) depth = Integer.parseInt(args[++i]);
+                else if(args[i].equals("-i")) init_time = Long.parseLong(args[++i]);
+                else if(args[i].equals("-l")) log_dir = new File(args[++i]);
+                else if(args[i].equals("-b")) bench_only = true;
+                else{ printUsage(); return; }
+            }
+        }catch(Exception e){ printUsage(); return; }
+
+        try{
+            BookGenerator generator = new BookGenerator(plies, depth);
+            if(bench_only){
+                generator.book = CCOpeningBook.open(file);
+            }
+            generator.build(init_time, readSetups(log_dir));
+            if(!bench_only){
+                CCOpeningBook.write(file, generator.moves);
+                System.out.println("Wrote " + generator.moves.size() + " positions to " + file +
+                    " (" + file.length() + " bytes)");
+                generator.book = CCOpeningBook.open(file);
+            }
+            generator.benchmark();
+        }catch(IOException e){
+            System.err.println("Failed: " + e.getMessage());
+        }
+    }
+
+    private static void printUsage(){
+        System.err.println(
+            "\nUsage: java alphaBeta.BookGenerator [-o file] [-p plies] [-d depth] [-i ms] [-l dir] [-b]\n" +
+            "  Where '-o file' names the book written. (default=" + DEFAULT_FILE + ")\n" +
+            "        '-p plies' sets the number of pit plies covered. (default=" + DEFAULT_PLIES + ")\n" +
+            "        '-d depth' sets the depth searched for each book move. (default=" + DEFAULT_DEPTH + ")\n" +
+            "        '-i ms' sets the time spent on each setup. (default=" + DEFAULT_INIT_TIME + ")\n" +
+            "        '-l dir' names the server logs to read opponent setups from. (default=" + Server.LOG_DIR + ")\n" +
+            "        '-b' only times lookups in an existing book.\n");
+    }
+
+    private static List<List<int[]>> readSetups(File log_dir) throws IOException { //Setups played by each seat in the logs, without repeats
+        List<List<int[]>> setups = new ArrayList<List<int[]>>();
+        setups.add(new ArrayList<int[]>());
+        setups.add(new ArrayList<int[]>());
+        File[] logs = log_dir.listFiles();
+        if(logs == null) return setups;
+        for(File log : logs){
+            try(BufferedReader in = new BufferedReader(new FileReader(log))){
+                for(String line; (line = in.readLine()) != null; ){
+                    if(!line.startsWith("INIT ")) continue;
+                    CCMove m = CCMove.parse(line);
+                    int seat = m.getPlayerID();
+                    if(seat == 0 || seat == 1) addSetup(setups.get(seat), m.getInit());
+                }
+            }
+        }
+        return setups;
+    }
+
+    private static void addSetup(List<int[]> setups, int[] setup){
+        for(int[] s : setups) if(Arrays.equals(s, setup)) return;
+        setups.add(setup);
+    }
+
+    private void build(long init_time, List<List<int[]>> logged){ //Find our setups, then cover the first plies from each start
+        int[][] ours = new int[2][];
+        for(int seat = 0; seat < 2; seat++){
+            CCBoardState view = new CCBoardState().getView(seat); //As the client sees it, opponent's setup hidden
+            CCMove init = bookMove(view);
+            if(init == null && book == null){
+                CCInitOptimizer optimizer = new CCInitOptimizer();
+                optimizer.setTimeLimit(init_time);
+                init = optimizer.optimize(view);
+                System.out.println("Seat " + seat + " setup " + Arrays.toString(init.getInit()) +
+                    ", won " + Math.round(100 * optimizer.getScore()) + "% of its test games");
+                moves.put(CCOpeningBook.key(view), init);
+            }
+            if(init == null) return;
+            positions.add(view);
+            ours[seat] = init.getInit();
+        }
+
+        for(int seat = 0; seat < 2; seat++){
+            List<int[]> opponents = new ArrayList<int[]>();
+            opponents.add(ours[1 - seat]);
+            for(int[] setup : logged.get(1 - seat)) addSetup(opponents, setup);
+            for(int[] setup : opponents){
+                CCBoardState state = new CCBoardState();
+                state.move(new CCMove(seat == 0 ? ours[0] : setup));
+                state.move(new CCMove(seat == 0 ? setup : ours[1]));
+                int before = moves.size();
+                cover(state, seat, plies);
+                System.out.println("Seat " + seat + " against " + Arrays.toString(setup) + ": " +
+                    (moves.size() - before) + " new positions");
+            }
+        }
+    }
+
+    private void cover(CCBoardState state, int seat, int plies_left){ //Add our moves in every line from state, following only our chosen moves
+        if(plies_left == 0 || state.gameOver()) return;
+        int turn = state.getTurn();
+        if(turn == seat){
+            CCBoardState view = state.getView(seat);
+            CCMove move = bookMove(view);
+            if(move == null && book == null){
+                move = player.holeSelect(view);
+                moves.put(CCOpeningBook.key(view), move);
+            }
+            if(move == null) return;
+            positions.add(view);
+            CCBoardState next = (CCBoardState) state.clone();
+            next.move(CCMove.ofPit(move.getPit(), turn));
+            cover(next, seat, plies_left - 1);
+        }else{
+            for(int legal = state.legalPitMask(); legal != 0; legal &= legal - 1){
+                CCBoardState next = (CCBoardState) state.clone();
+                next.move(CCMove.ofPit(Integer.numberOfTrailingZeros(legal), turn));
+                cover(next, seat, plies_left - 1);
+            }
+        }
+    }
+
+    private CCMove bookMove(CCBoardState view){ //Move already chosen for this position, from the book being read or the one being built
+        return book != null ? book.lookup(view) : moves.get(CCOpeningBook.key(view));
+    }
+
+    private void benchmark(){ //Time lookups of every book position, and of positions the book doesn't hold
+        if(positions.isEmpty()){
+            System.out.println("No book positions to look up.");
+            return;
+        }
+
+        CCBoardState[] hits = positions.toArray(new CCBoardState[0]);
+        CCBoardState[] misses = new CCBoardState[hits.length];
+        Random rand = new Random(1);
+        for(int i = 0; i < misses.length; i++){ //Random positions a few dozen plies in, which no book holds
+            CCBoardState state = new CCBoardState();
+            state.move(state.getRandomMove());
+            state.move(state.getRandomMove());
+            for(int k = 20 + rand.nextInt(20); k > 0 && !state.gameOver(); k--) state.move(state.getRandomMove());
+            misses[i] = state.getView(state.getTurn());
+        }
+
+        long lookups = Math.max(1, 2000000 / hits.length) * hits.length;
+        for(int round = 0; round < 3; round++){ //The first rounds warm up the JIT
+            long hits_found = 0, misses_found = 0;
+            long start = System.nanoTime();
+            for(long i = 0; i < lookups; i++) if(book.lookup(hits[(int) (i % hits.length)]) != null) hits_found++;
+            long hit_time = System.nanoTime() - start;
+            start = System.nanoTime();
+            for(long i = 0; i < lookups; i++) if(book.lookup(misses[(int) (i % misses.length)]) != null) misses_found++;
+            long miss_time = System.nanoTime() - start;
+            System.out.println("Lookups in " + book.size() + " positions: " + (hit_time / lookups) + " ns a hit (" +
+                hits_found + " of " + lookups + " found), " + (miss_time / lookups) + " ns a miss (" +
+                misses_found + " of " + lookups + " found)");
+        }
+    }
+}
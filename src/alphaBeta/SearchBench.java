@@ -0,0 +1,205 @@
+package alphaBeta;
+
+import boardgame.Server;
+import omweso.CCBoardState;
+import omweso.CCMove;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/* Measures how the parallel searches scale with the number of threads.
+ *
+ * The same positions are searched by alphaBetaPlayer at each thread count,
+ * in the mode given by -m, with a fresh transposition table for every
+ * position. They are taken evenly from the games in the server logs,
+ * replayed move by move, or if there are none, made by random setups and
+ * a few dozen random plies from a fixed seed. Positions already won or
+ * lost are left out. With a time limit the depth reached and the nodes
+ * per second show the gain; with a fixed depth and no time limit, the
+ * time to reach it does.
+ *
+ * java alphaBeta.SearchBench [-t threads,...] [-m split|lazy] [-ms ms] [-d depth] [-n positions] [-l dir] [-s seed] */
+public class SearchBench {
+
+    static private final String DEFAULT_THREADS = "1,2,4,8,16";
+    static private final long DEFAULT_MOVE_TIME = 2000; //Search time for each position
+    static private final int DEFAULT_POSITIONS = 8;
+    static private final int HASH_MB = 64; //Table size for each position, as a player gets by default
+    static private final int CHECK_DEPTH = 8; //Positions already decided at this depth are left out
+
+    private final List<CCBoardState> positions;
+    private final alphaBetaPlayer.SearchMode mode;
+    private final long move_time;
+    private final int depth;
+
+    private SearchBench(List<CCBoardState> positions, alphaBetaPlayer.SearchMode mode, long move_time, int depth){
+        this.positions = positions;
+        this.mode = mode;
+        this.move_time = move_time;
+        this.depth = depth;
+    }
+
+    public static void main(String[] args){
+        String threads = DEFAULT_THREADS;
+        alphaBetaPlayer.SearchMode mode = alphaBetaPlayer.SearchMode.ROOT_SPLIT;
+        long move_time = 0;
+        int depth = Searcher.MAX_DEPTH;
+        int count = DEFAULT_POSITIONS;
+        File log_dir = new File(Server.LOG_DIR);
+        long seed = 1;
+        try{
+            for(int i = 0; i < args.length; i++){
+                if(args[i].equals("-t")) threads = args[++i];
+                else if(args[i].equals("-m")){
+                    String m = args[++i];
+                    if(m.equals("split")) mode = alphaBetaPlayer.SearchMode.ROOT_SPLIT;
+                    else if(m.equals("lazy")) mode = alphaBetaPlayer.SearchMode.LAZY_SMP;
+                    else{ printUsage(); return; }
+                }
+                else if(args[i].equals("-ms")) move_time = Long.parseLong(args[++i]);
+                else if(args[i].equals("-d")) depth = Integer.parseInt(args[++i]);
+                else if(args[i].equals("-n")) count = Integer.parseInt(args[++i]);
+                else if(args[i].equals("-l")) log_dir = new File(args[++i]);
+                else if(args[i].equals("-s")) seed = Long.parseLong(args[++i]);
+                else{ printUsage(); return; }
+            }
+        }catch(Exception e){ printUsage(); return; }
+        if(move_time == 0) move_time = depth < Searcher.MAX_DEPTH ? Long.MAX_VALUE / 4 : DEFAULT_MOVE_TIME; //With a depth only the depth limits the search
+
+        List<CCBoardState> positions;
+        String source;
+        try{
+            positions = loggedPositions(log_dir, count);
+            source = "from the logs in " + log_dir;
+        }catch(IOException e){
+            System.err.println("Failed: " + e.getMessage());
+            return;
+        }
+        if(positions.isEmpty()){
+            positions = randomPositions(count, seed);
+            source = "made at random from seed " + seed;
+        }
+
+        SearchBench bench = new SearchBench(positions, mode, move_time, depth);
+        String[] counts = threads.split(",");
+        bench.run(Integer.parseInt(counts[0].trim()), 0); //Warms up the JIT, else the first count looks slow
+        List<String> results = new ArrayList<String>();
+        double base_time = 0;
+        for(String t : counts){
+            String result = bench.run(Integer.parseInt(t.trim()), base_time);
+            if(base_time == 0) base_time = bench.last_time;
+            results.add(result);
+        }
+        System.out.println("\n" + mode + " on " + positions.size() + " positions " + source + ", " +
+            (depth < Searcher.MAX_DEPTH ? "depth " + depth : "") +
+            (move_time < Long.MAX_VALUE / 4 ? (depth < Searcher.MAX_DEPTH ? ", " : "") + move_time + " ms each" : "") + ", " +
+            Runtime.getRuntime().availableProcessors() + " processors:");
+        for(String result : results) System.out.println(result);
+    }
+
+    private static void printUsage(){
+        System.err.println(
+            "\nUsage: java alphaBeta.SearchBench [-t threads,...] [-m split|lazy] [-ms ms] [-d depth] [-n positions] [-l dir] [-s seed]\n" +
+            "  Where '-t threads,...' lists the thread counts compared. (default=" + DEFAULT_THREADS + ")\n" +
+            "        '-m split|lazy' chooses root splitting or lazy SMP. (default=split)\n" +
+            "        '-ms ms' sets the search time for each position. (default=" + DEFAULT_MOVE_TIME + ")\n" +
+            "        '-d depth' searches each position to this depth, with no time limit unless -ms is given.\n" +
+            "        '-n positions' sets the number of positions searched. (default=" + DEFAULT_POSITIONS + ")\n" +
+            "        '-l dir' names the server logs the positions are taken from. (default=" + Server.LOG_DIR + ")\n" +
+            "        '-s seed' chooses random positions, used when the logs hold no games. (default=1)\n");
+    }
+
+    private static List<CCBoardState> loggedPositions(File log_dir, int count) throws IOException { //Up to count open positions, spread evenly over the logged games
+        List<CCBoardState> played = new ArrayList<CCBoardState>();
+        File[] logs = log_dir.listFiles();
+        if(logs == null) return played;
+        Arrays.sort(logs); //In game order, so the same logs always give the same positions
+        for(File log : logs){
+            try(BufferedReader in = new BufferedReader(new FileReader(log))){
+                CCBoardState state = new CCBoardState();
+                for(String line; (line = in.readLine()) != null && !state.gameOver(); ){
+                    if(!line.startsWith("INIT ") && !line.startsWith("PIT ")) continue;
+                    try{
+                        state.move(CCMove.parse(line));
+                    }catch(IllegalArgumentException e){
+                        break; //Not a log of this game, or a move the server refused
+                    }
+                    if(line.startsWith("PIT ") && !state.gameOver()) played.add(state.getView(state.getTurn()));
+                }
+            }
+        }
+
+        List<CCBoardState> positions = new ArrayList<CCBoardState>();
+        Searcher checker = new Searcher();
+        int stride = Math.max(1, played.size() / Math.max(1, count));
+        for(int start = 0; start < stride && positions.size() < count; start++){ //Later offsets fill in for positions left out as decided
+            for(int i = start; i < played.size() && positions.size() < count; i += stride){
+                if(isOpen(checker, played.get(i))) positions.add(played.get(i));
+            }
+        }
+        return positions;
+    }
+
+    private static List<CCBoardState> randomPositions(int count, long seed){ //Open middle game positions, the same for a given seed
+        Random rand = new Random(seed);
+        List<CCBoardState> positions = new ArrayList<CCBoardState>();
+        Searcher checker = new Searcher();
+        while(positions.size() < count){
+            CCBoardState state = new CCBoardState();
+            for(int p = 0; p < 2; p++){
+                int[] init = new int[2 * CCBoardState.SIZE];
+                for(int i = 0; i < CCBoardState.NUM_INITIAL_SEEDS; i++) init[rand.nextInt(init.length)]++;
+                state.move(new CCMove(init));
+            }
+            for(int k = 10 + rand.nextInt(30); k > 0 && !state.gameOver(); k--){
+                int legal = state.legalPitMask();
+                for(int skip = rand.nextInt(Integer.bitCount(legal)); skip > 0; skip--) legal &= legal - 1;
+                state.move(CCMove.ofPit(Integer.numberOfTrailingZeros(legal)));
+            }
+            if(state.gameOver()) continue;
+            CCBoardState view = state.getView(state.getTurn());
+            if(isOpen(checker, view)) positions.add(view);
+        }
+        return positions;
+    }
+
+    private static boolean isOpen(Searcher checker, CCBoardState view){ //A decided search stops after a few iterations and measures nothing
+        checker.newSearch(new TranspositionTable(1), view, Long.MAX_VALUE);
+        checker.aspirate(CHECK_DEPTH, Integer.numberOfTrailingZeros(view.legalPitMask()), 0);
+        return !Searcher.isDecided(checker.getRootScore());
+    }
+
+    private double last_time; //Seconds spent by the last run
+
+    private String run(int threads, double base_time){ //Search every position with the given number of threads
+        alphaBetaPlayer player = new alphaBetaPlayer("bench");
+        player.setThreads(threads);
+        player.setSearchMode(mode);
+        player.setMaxDepth(depth);
+        player.setMoveTime(move_time);
+        player.setPonderingEnabled(false);
+        player.setOpeningBook(null);
+
+        long nodes = 0;
+        int depths = 0;
+        long start = System.nanoTime();
+        for(CCBoardState position : positions){
+            player.setHashSize(HASH_MB); //Each position starts from an empty table
+            player.holeSelect(position);
+            nodes += player.getNodes();
+            depths += player.getDepthReached();
+        }
+        last_time = (System.nanoTime() - start) / 1e9;
+        player.setThreads(1); //Shuts the pool down
+
+        return String.format("%3d threads: depth %.1f, %d nodes/s, %.1f s%s", threads,
+            depths / (double) positions.size(), Math.round(nodes / last_time), last_time,
+            base_time > 0 && depth < Searcher.MAX_DEPTH ? String.format(", %.2fx as fast to depth as the first count", base_time / last_time) : "");
+    }
+}
@@ -0,0 +1,286 @@
+package alphaBeta;
+
+import omweso.CCBoardState;
+
+/* The state of one thread's alpha-beta search.
+ *
+ * A searcher owns the board it plays moves on, its node count and its move
+ * ordering tables (killers and history), so several searchers can run at
+ * once without sharing anything but the transposition table. alphaBetaPlayer
+ * keeps one searcher for the main thread and one for each worker thread. */
+class Searcher {
+
+    static final int MAX_DEPTH = 64; //Deepest iteration tried, if time allows
+
+    static final int WIN = 1 << 20; //Score of winning now; a win n plies away scores WIN - n
+    static final int INFINITY = WIN + 1; //Beyond any score, and safe to negate unlike Integer.MIN_VALUE
+    static final int MAX_QUIESCENCE = 16; //Most capture plies searched past the nominal depth
+    private static final int MAX_PLY = MAX_DEPTH + MAX_QUIESCENCE; //Deepest ply a win can be found at
+
+    private static final int ASPIRATION = 4; //Half width, in seeds, of the first window around the last score
+
+    private static final int CAPTURE_BONUS = 1 << 20; //Ordering bonus for moves that capture, above any history score
+    private static final int MAX_HISTORY = CAPTURE_BONUS / 2; //History is halved on reaching this, so it stays below CAPTURE_BONUS
+
+    private TranspositionTable table; //Shared with the other searchers
+    private CCBoardState board; //Position being searched, changed in place with applyPit and undo
+
+    private long deadline; //Time at which the search must stop
+    private long nodes; //Nodes searched since newSearch
+    private volatile boolean stopped; //Set once the deadline has passed, unwinds the search
+
+    private int iteration_depth; //Depth of the current iteration, so ply = iteration_depth - depth
+    private int[][] move_buffer = new int[MAX_DEPTH + 1][2 * CCBoardState.SIZE]; //Ordered moves for each ply
+    private int[][] score_buffer = new int[MAX_DEPTH + 1][2 * CCBoardState.SIZE]; //Ordering scores for each ply
+    private int[][] killers = new int[MAX_DEPTH + 1][2]; //Two recent cutoff moves for each ply
+    private int[][] history = new int[2][2 * CCBoardState.SIZE]; //Cutoff counts for each side and pit
+    private int root_score; //Score of the last finished root search
+    private int quiescence_depth = 0; //Capture plies searched past the nominal depth, none unless a player asks: at equal time it hasn't beaten static leaves
+
+    /** Prepare to search the given position. The board is changed during the
+     * search but always restored before a method returns. */
+    void newSearch(TranspositionTable table, CCBoardState board, long deadline){
+        this.table = table;
+        this.board = board;
+        this.deadline = deadline;
+        nodes = 0;
+        stopped = false;
+        for(int[] h : history) for(int i = 0; i < h.length; i++) h[i] /= 2; //Older history counts less
+        for(int[] k : killers) java.util.Arrays.fill(k, -1);
+    }
+
+    CCBoardState getBoard(){ return board; }
+
+    void setQuiescenceDepth(int depth){ quiescence_depth = Math.max(0, Math.min(depth, MAX_QUIESCENCE)); }
+
+    long getNodes(){ return nodes; }
+
+    boolean isStopped(){ return stopped; }
+
+    /** Make the search unwind as soon as possible. Safe to call from any thread. */
+    void stop(){ stopped = true; }
+
+    int getRootScore(){ return root_score; }
+
+    /** Search all root moves to the given depth, in a narrow window around
+     * last_score that is widened until the score falls inside it, and return
+     * the best move. first is searched before the others. */
+    int aspirate(int depth, int first, int last_score){
+        if(depth < 3 || isDecided(last_score)){ //Shallow scores move about too much for a narrow window to pay
+            return searchRoot(depth, first, -INFINITY, INFINITY);
+        }
+        int delta = ASPIRATION;
+        int alpha = last_score - delta;
+        int beta = last_score + delta;
+        while(true){
+            int move = searchRoot(depth, first, alpha, beta);
+            if(stopped) return move;
+            if(root_score <= alpha){ //Failed low, all moves look worse than expected
+                alpha = delta > WIN ? -INFINITY : Math.max(-INFINITY, root_score - delta);
+            }else if(root_score >= beta){ //Failed high, move is better than expected and is searched first again
+                beta = delta > WIN ? INFINITY : Math.min(INFINITY, root_score + delta);
+                first = move;
+            }else{
+                return move;
+            }
+            delta *= 2;
+        }
+    }
+
+    /** Search all root moves to the given depth within the window alpha,
+     * beta, trying first before the others, and return the best one. */
+    int searchRoot(int depth, int first, int alpha, int beta){
+        iteration_depth = depth;
+        int best_score = -INFINITY;
+        int move = first;
+        int moves = board.legalPitMask() & ~(1 << first); //The other legal pits, walked without allocating
+        for(int m = first; m >= 0; m = moves == 0 ? -1 : Integer.numberOfTrailingZeros(moves)){
+            moves &= ~(1 << m);
+            int value;
+            if(m == first){
+                value = searchChild(m, depth, alpha, beta);
+            }else{
+                value = searchChild(m, depth, alpha, alpha + 1); //Only prove it is no better than the best so far
+                if(value > alpha && value < beta && !stopped) value = searchChild(m, depth, alpha, beta); //It is better, find by how much
+            }
+            if(stopped) break;
+            if(value > best_score){
+                best_score = value;
+                move = m; //Keep this as the best move until updated/termination of loop
+            }
+            if(value > alpha) alpha = value;
+            if(alpha >= beta) break;
+        }
+        root_score = best_score;
+        return move;
+    }
+
+    /** Play root move m, search the position after it to depth - 1 within
+     * the given window and take the move back. Returns the score for the
+     * side playing m. */
+    int searchChild(int m, int depth, int alpha, int beta){
+        iteration_depth = depth;
+        board.applyPit(m); //Simulate the move in place, undone below
+        int value = -search(depth - 1, -beta, -alpha);
+        board.undo(); //Take the move back before trying the next one
+        return value;
+    }
+
+    /** Negamax principal variation search: returns the score for the side to move. */
+    private int search(int depth, int alpha, int beta){
+        if((++nodes & 1023) == 0 && System.currentTimeMillis() >= deadline) stopped = true; //Check the clock every 1024 nodes
+        if(stopped) return 0; //Value is discarded
+        int ply = iteration_depth - depth;
+        if(board.gameOver()){
+            return evaluate(board, ply);
+        }
+        if(depth == 0){
+            return quiesce(alpha, beta, ply, quiescence_depth);
+        }
+        long key = board.getHashKey();
+        long entry = table.probe(key); //Seen this position before?
+        int table_move = -1;
+        if(entry != TranspositionTable.NONE){
+            table_move = TranspositionTable.move(entry); //Best move last time, searched first
+            if(TranspositionTable.depth(entry) >= depth){ //Stored result is deep enough to use
+                int score = fromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if(bound == TranspositionTable.EXACT) return score;
+                if(bound == TranspositionTable.LOWER && score >= beta) return score;
+                if(bound == TranspositionTable.UPPER && score <= alpha) return score;
+            }
+        }
+        int best_score = -INFINITY;
+        int best = -1;
+        int alpha_in = alpha;
+        int[] moves = move_buffer[ply];
+        int count = 0;
+        if(table_move >= 0 && ((board.legalPitMask() >>> table_move) & 1) != 0) moves[count++] = table_move; //Try the table move before ordering the rest
+        boolean ordered = false;
+        for(int i = 0; ; i++){ //Most promising moves first
+            if(i == count){
+                if(ordered) break;
+                count = orderMoves(ply, table_move, moves, count); //Table move didn't cut off, order the others
+                ordered = true;
+                if(i == count) break;
+            }
+            int m = moves[i];
+            board.applyPit(m);
+            int value;
+            if(i == 0){
+                value = -search(depth - 1, -beta, -alpha); //Expected best move, full window
+            }else{
+                value = -search(depth - 1, -alpha - 1, -alpha); //Zero window, only proves the move is no better
+                if(value > alpha && value < beta) value = -search(depth - 1, -beta, -alpha); //It is better, search it properly
+            }
+            board.undo();
+            if(value > best_score){
+                best_score = value;
+                best = m;
+            }
+            if(value > alpha){
+                alpha = value;
+                if(alpha >= beta){
+                    cutoff(board.getTurn(), ply, depth, m);
+                    break;
+                }
+            }
+        }
+        if(!stopped){
+            int bound = best_score >= beta ? TranspositionTable.LOWER : best_score <= alpha_in ? TranspositionTable.UPPER : TranspositionTable.EXACT;
+            table.store(key, toTable(best_score, ply), depth, bound, best);
+        }
+        return best_score;
+    }
+
+    /** Search only the capturing moves, so a position is not scored in the
+     * middle of an exchange. The side to move may also stand pat, keeping
+     * the static score, since it need not capture. */
+    private int quiesce(int alpha, int beta, int ply, int depth_left){
+        int best_score = evaluate(board, ply);
+        if(board.gameOver() || depth_left == 0 || best_score >= beta) return best_score;
+        int captures = board.capturingMoveMask();
+        if(captures == 0) return best_score; //Quiet position, the static score holds
+        if(best_score > alpha) alpha = best_score;
+        for(; captures != 0; captures &= captures - 1){
+            if((++nodes & 1023) == 0 && System.currentTimeMillis() >= deadline) stopped = true;
+            if(stopped) return 0;
+            board.applyPit(Integer.numberOfTrailingZeros(captures));
+            int value = -quiesce(-beta, -alpha, ply + 1, depth_left - 1);
+            board.undo();
+            if(value > best_score){
+                best_score = value;
+                if(value > alpha){
+                    alpha = value;
+                    if(alpha >= beta) break;
+                }
+            }
+        }
+        return best_score;
+    }
+
+    private int orderMoves(int ply, int first, int[] moves, int start){ //Add the legal pits other than first to moves from start on, best guesses first, and return the new count
+        int side = board.getTurn();
+        int[] scores = score_buffer[ply];
+        int count = start;
+        int legal = board.legalPitMask();
+        if(first >= 0) legal &= ~(1 << first); //Already searched
+        for(; legal != 0; legal &= legal - 1){
+            int m = Integer.numberOfTrailingZeros(legal);
+            int score;
+            if(m == killers[ply][0]) score = Integer.MAX_VALUE - 1; //Caused a cutoff at this ply recently
+            else if(m == killers[ply][1]) score = Integer.MAX_VALUE - 2;
+            else{
+                score = history[side][m]; //How often this pit caused cutoffs, weighted by depth
+                if(board.isCapturingMove(m)) score += CAPTURE_BONUS; //Captures tend to be good
+            }
+            int j = count++;
+            for(; j > start && scores[j - 1] < score; j--){ //Insertion sort, there are at most 16 moves
+                scores[j] = scores[j - 1];
+                moves[j] = moves[j - 1];
+            }
+            scores[j] = score;
+            moves[j] = m;
+        }
+        return count;
+    }
+
+    private void cutoff(int side, int ply, int depth, int m){ //Remember a move that caused a cutoff, for ordering
+        if(killers[ply][0] != m){
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = m;
+        }
+        history[side][m] += depth * depth;
+        if(history[side][m] >= MAX_HISTORY){ //Long searches would otherwise outgrow CAPTURE_BONUS and put captures behind quiet moves
+            for(int[] h : history) for(int i = 0; i < h.length; i++) h[i] /= 2;
+        }
+    }
+
+    /** Score a position for the side to move: the seed advantage, or, once
+     * the game is won or lost, WIN less the number of plies from the root. */
+    static int evaluate(CCBoardState board_state, int ply){
+        int side = board_state.getTurn();
+        int winner = board_state.getWinner();
+        if(winner == side) return WIN - ply; //Quicker wins score higher
+        if(winner == 1 - side) return ply - WIN; //Slower losses score higher
+        if(board_state.gameOver()) return 0; //Draw or cancelled
+        return board_state.getSeedCount(side) - board_state.getSeedCount(1 - side); //Seeds in our holes minus seeds in the opponent's holes
+    }
+
+    /** Whether a score means the game is won or lost. */
+    static boolean isDecided(int score){
+        return score >= WIN - MAX_PLY || score <= MAX_PLY - WIN;
+    }
+
+    private static int toTable(int score, int ply){ //Win scores are stored as plies from the stored node, not from the root
+        if(score >= WIN - MAX_PLY) return score + ply;
+        if(score <= MAX_PLY - WIN) return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply){
+        if(score >= WIN - MAX_PLY) return score - ply;
+        if(score <= MAX_PLY - WIN) return score + ply;
+        return score;
+    }
+}
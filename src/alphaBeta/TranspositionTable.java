@@ -0,0 +1,110 @@
+package alphaBeta;
+
+/* Transposition table for the alpha-beta search.
+ *
+ * Entries live in two primitive arrays, so the table is a fixed size and
+ * never creates garbage. Each entry is a pair of longs: the packed data
+ * (score, depth, bound, best move) and the position key XORed with that
+ * data. A reader only accepts an entry if key ^ data gives back the key it
+ * is looking for, so a torn write from another thread looks like a miss
+ * rather than a wrong result, and no locking is needed between searchers.
+ *
+ * Slots are grouped in pairs. The first slot of a pair keeps the deepest
+ * result seen, the second always takes the newest one.
+ *
+ * The table is never cleared between moves. Each entry records the search
+ * that stored it, and a deep entry left over from an earlier search may be
+ * replaced by a shallower new one, so the table fills with results that
+ * are still useful while old ones can still be read until overwritten. */
+public class TranspositionTable {
+
+    public static final int EXACT = 0; //Score is the exact value of the position
+    public static final int LOWER = 1; //Score is a lower bound (search failed high)
+    public static final int UPPER = 2; //Score is an upper bound (search failed low)
+
+    public static final long NONE = 0; //Returned by probe on a miss
+
+    private static final long VALID = 1L << 47; //Set in every stored entry, so none is ever NONE
+
+    private static final int AGE_SHIFT = 48; //Bits 48-55 hold the search that stored the entry
+
+    private final long[] keys; //key ^ data for every slot
+    private final long[] data; //Packed entry for every slot
+    private final int mask; //Number of slots - 1
+    private int age; //Number of the current search, modulo 256
+
+    private long probes; //Approximate when several threads share the table
+    private long hits;
+
+    /** Create a table using about the given number of megabytes. */
+    public TranspositionTable(int size_mb){
+        long slots = Math.max(2, ((long) size_mb << 20) / 16); //16 bytes per slot
+        int size = Integer.highestOneBit((int) Math.min(slots, 1 << 30)); //Round down to a power of two
+        keys = new long[size];
+        data = new long[size];
+        mask = size - 1;
+    }
+
+    /** Return the entry stored for the given key, or NONE. */
+    public long probe(long key){
+        probes++;
+        int i = (int) key & mask & ~1;
+        long entry = data[i];
+        if((keys[i] ^ entry) == key && entry != NONE){
+            hits++;
+            return entry;
+        }
+        entry = data[i + 1];
+        if((keys[i + 1] ^ entry) == key && entry != NONE){
+            hits++;
+            return entry;
+        }
+        return NONE;
+    }
+
+    /** Store a search result. move is the best pit found, or -1 if none. */
+    public void store(long key, int score, int depth, int bound, int move){
+        long entry = (score & 0xFFFFFFFFL)
+            | ((long) Math.min(depth, 255) << 32)
+            | ((long) bound << 40)
+            | ((long) (move + 1) << 42)
+            | ((long) age << AGE_SHIFT)
+            | VALID;
+
+        int i = (int) key & mask & ~1;
+        long old = data[i];
+        if((keys[i] ^ old) != key && old != NONE && depth(old) > depth && age(old) == age){
+            i++; //Keep the deeper result from this search, put this one in the always-replace slot
+        }
+        data[i] = entry;
+        keys[i] = key ^ entry;
+    }
+
+    public static int score(long entry){ return (int) entry; }
+
+    public static int depth(long entry){ return (int) (entry >>> 32) & 0xFF; }
+
+    public static int bound(long entry){ return (int) (entry >>> 40) & 0x3; }
+
+    /** Return the number, modulo 256, of the search that stored the entry. */
+    public static int age(long entry){ return (int) (entry >>> AGE_SHIFT) & 0xFF; }
+
+    /** Return the best pit stored in the entry, or -1. */
+    public static int move(long entry){ return ((int) (entry >>> 42) & 0x1F) - 1; }
+
+    /** Return the fraction of probes that found an entry since the last reset. */
+    public double hitRate(){
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+
+    public void resetStats(){
+        probes = 0;
+        hits = 0;
+    }
+
+    /** Start a new search: entries stored until now become stale, and may
+     * be replaced by shallower ones, but are still returned by probe. */
+    public void newSearch(){
+        age = (age + 1) & 0xFF;
+    }
+}
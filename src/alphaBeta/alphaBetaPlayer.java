@@ -4,18 +4,69 @@ import boardgame.Board;
 import boardgame.BoardState;
 import boardgame.Move;
 import boardgame.Player;
+import boardgame.Server;
 import omweso.CCBoardState;
 import omweso.CCBoard;
+import omweso.CCInitOptimizer;
 import omweso.CCMove;
+import omweso.CCOpeningBook;
 
-import java.util.ArrayList;
-import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /* Mini Max Algorithm with Alpha Beta Pruning */
 public class alphaBetaPlayer extends Player {
 
     static private String default_name = "alphaBeta";
 
+    static private final long TIME_MARGIN = 300; //Milliseconds kept in hand for sending the move before the server's timeout
+
+    private long move_time = Server.DEFAULT_TIMEOUT - TIME_MARGIN; //Search time for normal moves
+    private long first_move_time = Server.FIRST_MOVE_TIMEOUT - TIME_MARGIN; //Search time for the first move
+    private long init_time = CCInitOptimizer.DEFAULT_TIME_LIMIT; //Most time spent choosing where to place the seeds
+    private CCOpeningBook book = CCOpeningBook.getDefault(); //Moves for the opening, or null to always search
+
+    private long nodes; //Nodes searched for the current move, over all threads
+    private int depth_reached; //Deepest iteration finished for the current move
+
+    static private final int DEFAULT_HASH_MB = 64;
+
+    private TranspositionTable table = new TranspositionTable(DEFAULT_HASH_MB); //Results of earlier searches, kept between moves
+
+    private int max_depth = Searcher.MAX_DEPTH; //Deepest iteration to search
+
+    /** How the threads share the work of a search, when there is more than one. */
+    public enum SearchMode {
+        /** Root moves are searched in parallel, pruned against the best score found so far. */
+        ROOT_SPLIT,
+        /** Every thread searches the whole tree, in a different order, and they
+         * share results only through the transposition table. */
+        LAZY_SMP
+    }
+
+    private int quiescence_depth = -1; //Set by setQuiescenceDepth, or -1 for the searchers' default
+
+    private int threads = 1; //Threads searching each move
+    private SearchMode mode = SearchMode.ROOT_SPLIT;
+    private ForkJoinPool pool; //Runs the other threads' work when threads > 1, created when first needed
+    private Searcher searcher = new Searcher(); //Search state for the calling thread
+    private Searcher[] helpers = new Searcher[0]; //Search state for each pool thread
+    private final ConcurrentLinkedQueue<Searcher> idle = new ConcurrentLinkedQueue<Searcher>(); //Helpers not running a root move
+    private int split_score; //Score of the last finished splitRoot
+    private int split_move; //Best root move found so far by splitRoot
+    private final AtomicInteger split_alpha = new AtomicInteger(); //Best score so far, raised by every thread as root moves finish
+
+    private volatile CCMove best_so_far; //Move from the last finished iteration, read by the client at the deadline
+
+    private Thread ponder_thread; //Searches the opponent's position while it thinks, null when not pondering
+    private CCBoardState ponder_position; //Position pondered on, with the opponent to move
+    private int ponder_move; //Reply the ponder search expects from the opponent, or -1
+    private int ponder_depth; //Deepest iteration the ponder search finished
+    private int ponder_hits; //Moves on which the opponent played the expected reply
+    private int ponder_count; //Moves that followed a ponder search
+
     public alphaBetaPlayer() { super(default_name); }
     public alphaBetaPlayer(String s) { super(s); }
 
@@ -24,6 +75,10 @@ public class alphaBetaPlayer extends Player {
     public Move chooseMove(BoardState bs) //Method decides which hole to pick up seeds from
     {
         CCBoardState board_state = (CCBoardState) bs;
+        stopPondering(); //Normally done by the client already
+        best_so_far = null;
+        CCMove book_move = book == null ? null : book.lookup(board_state);
+        if(book_move != null) return book_move; //Known opening position, nothing to search
         if(!board_state.isInitialized()){ //Game Board needs to be initialized before selecting an optimal move
             return initialize(board_state);
         }else{
@@ -31,93 +86,257 @@ public class alphaBetaPlayer extends Player {
         }
     }
     
-    public CCMove initialize(CCBoardState board_state){ //Randomly assigns seeds 
-        Random rand = new Random();
-    	int[] holes_at_start = new int[2 * CCBoardState.SIZE];
-        int num_seeds = CCBoardState.NUM_INITIAL_SEEDS;
-        if(board_state.playFirst()){
-            for(int i = 0; i < num_seeds; i++){
-                int hole = rand.nextInt(2 * CCBoardState.SIZE); //Select hole indexs at random
-                holes_at_start[hole]++; //Increase this hole's seed count by one
-            }
-        }else{
-        	holes_at_start[0] = num_seeds; //Stuff the (remainder of) seeds in the first hole
-        }
-        return new CCMove(holes_at_start); //This is our first move
-    }
-
-    public CCMove holeSelect(CCBoardState board_state){ //Optimal holes is selected by Minimax w/ Alpha Beta Pruning
-    	int depth = 10; //Set 10 Depth Level to allow higher probability of success against other student's AIs
-    	int maxScore = Integer.MIN_VALUE; //Set low for comparison to update its value on first iteration 
-    	int value;
-    	int alpha = Integer.MIN_VALUE;
-    	int beta = Integer.MAX_VALUE;    	
-    	CCMove move = null;
-    	boolean maxPlayer = depth%2==0 ? true : false; //Pick what type of player for Alpha Beta Pruning to be correct
-    	ArrayList<CCMove> moves = board_state.getLegalMoves();
-    	for(CCMove m : moves){
-    		CCBoardState board = (CCBoardState) board_state.clone(); // Don't actually make moves on board, so we use clone to simulate moves
-    		board.move(m); //Updates board with move
-    		value = alphaBeta(board, depth-1, alpha,beta,maxPlayer); //Alpha beta pruning, will assign values for level 1 moves based on recursive pruning at lower levels
-    		if(value >= maxScore){
-        		maxScore = value; //Value from Alpha Beta Pruning on Mini Max Tree
-        		move = m; //Keep this as the best move until updated/termination of loop
-        	}
+    public CCMove initialize(CCBoardState board_state){ //Places the seeds where they won most often in quick self-play games
+        CCInitOptimizer optimizer = new CCInitOptimizer();
+    	optimizer.setTimeLimit(Math.min(init_time, timeBudget(board_state) / 2)); //Leave plenty of the first move's time in hand
+        return optimizer.optimize(board_state);
+    }
+
+    public CCMove holeSelect(CCBoardState board_state){ //Optimal hole is selected by iterative deepening Minimax w/ Alpha Beta Pruning
+    	long start = System.currentTimeMillis();
+    	long deadline = start + timeBudget(board_state); //Stop searching once this time is reached
+    	long relay_cycles = CCBoardState.getRelayCyclesDetected(); //Moves cancelled early by their relays cycling, counted for the statistics
+    	if(ponder_position == null) table.newSearch(); //A ponder search already started this one
+    	String pondered = checkPonder(board_state);
+    	table.resetStats();
+    	searcher.newSearch(table, board_state, deadline);
+    	for(Searcher h : helpers) h.newSearch(table, (CCBoardState) board_state.clone(), deadline); //Each thread plays moves on its own copy
+    	boolean split = threads > 1 && mode == SearchMode.ROOT_SPLIT;
+    	ForkJoinTask<?>[] lazy = threads > 1 && mode == SearchMode.LAZY_SMP ? startHelpers() : null;
+    	int move = Integer.numberOfTrailingZeros(board_state.legalPitMask()); //Fall back to any legal move if not even depth 1 finishes
+    	best_so_far = CCMove.ofPit(move);
+    	depth_reached = 0;
+    	int score = 0; //Score of the last finished iteration, the next one's window is centred on it
+    	for(int depth = 1; depth <= max_depth; depth++){ //Search one level deeper each time, until the time runs out
+    		int best = split ? splitRoot(depth, move) : searcher.aspirate(depth, move, score);
+    		if(split ? anyStopped() : searcher.isStopped()) break; //Unfinished iteration, keep the move from the last finished one
+    		move = best;
+    		best_so_far = CCMove.ofPit(move);
+    		depth_reached = depth;
+    		score = split ? split_score : searcher.getRootScore();
+    		if(Searcher.isDecided(score)) break; //Result is already decided, deeper search won't change it
     	}
-    	return move; //This move has highest value 
+    	if(lazy != null){ //The main search decides the move, the helpers only filled the table
+    		for(Searcher h : helpers) h.stop();
+    		for(ForkJoinTask<?> task : lazy) task.join();
+    	}
+    	nodes = searcher.getNodes();
+    	for(Searcher h : helpers) nodes += h.getNodes();
+    	System.out.println("alphaBeta: depth " + depth_reached + ", " + nodes + " nodes in " +
+    		(System.currentTimeMillis() - start) + " ms, hash hits " + Math.round(100 * table.hitRate()) + "%, relay cycles cut " +
+    		(CCBoardState.getRelayCyclesDetected() - relay_cycles) +
+    		(threads > 1 ? ", " + threads + " threads " + mode : "") + pondered);
+    	return CCMove.ofPit(move); //This move has highest value 
+    }
+
+    /** Return the best move of the last finished iteration of the running search. */
+    public Move getBestMoveSoFar(){ return best_so_far; }
+
+    /** Stop the running search, which then returns the best move so far. */
+    public void stopSearch(){
+    	searcher.stop();
+    	for(Searcher h : helpers) h.stop();
+    }
+
+    /** Search the position after our move while the opponent thinks. The
+     * results stay in the transposition table for our next search. */
+    public void ponder(BoardState bs){
+    	stopPondering();
+    	CCBoardState board_state = (CCBoardState) bs;
+    	if(!board_state.isInitialized() || board_state.gameOver()) return;
+    	ponder_position = board_state;
+    	ponder_move = -1;
+    	ponder_depth = 0;
+    	table.newSearch(); //Entries from the ponder search belong with our next move
+    	searcher.newSearch(table, board_state, Long.MAX_VALUE); //Here rather than on the thread, so a quick stopPondering isn't missed
+    	ponder_thread = new Thread(this::ponderSearch, "alphaBeta ponder");
+    	ponder_thread.setDaemon(true);
+    	ponder_thread.start();
     }
-    
 
-    private int alphaBeta(CCBoardState board_state, int depth, int alpha, int beta, boolean maxPlayer){
-    	if(depth ==0){
-    		return scoreValue(board_state);
+    /** Stop the ponder search, if one is running, and wait for it to finish. */
+    public void stopPondering(){
+    	if(ponder_thread == null) return;
+    	searcher.stop();
+    	try{
+    		ponder_thread.join();
+    	}catch(InterruptedException e){
+    		Thread.currentThread().interrupt();
     	}
-    	maxPlayer = depth%2==0 ? true : false; //Toggle between Max and Min Player
-    	if(maxPlayer) return maximize(board_state, depth, alpha, beta, maxPlayer); // We want max score for a max player, pruning ensues
-    	else return minimize(board_state, depth, alpha, beta, maxPlayer);
+    	ponder_thread = null;
     }
-    
-    private int maximize(CCBoardState board_state,int depth, int alpha, int beta,boolean maxPlayer){  //Pruning for Max Player
-    	int cmp = Integer.MIN_VALUE; //Updates upward after first iteration, allows for Max
-    	ArrayList<CCMove> moves = board_state.getLegalMoves();
-    	for(CCMove m : moves){
-    		CCBoardState board = (CCBoardState) board_state.clone();
-    		board.move(m); //Update board with move
-    		cmp = Math.max(cmp, alphaBeta(board, depth-1, alpha, beta, maxPlayer)); //Recurse to find value of lower nodes 
-    		alpha = Math.max(alpha, cmp); //Max is used here since its max player
-    		if(beta <= alpha) break;
+
+    private void ponderSearch(){ //Iterative deepening on the opponent's move, with no deadline, until stopped
+    	int move = Integer.numberOfTrailingZeros(ponder_position.legalPitMask());
+    	int score = 0;
+    	for(int depth = 1; depth <= max_depth; depth++){
+    		int best = searcher.aspirate(depth, move, score);
+    		if(searcher.isStopped()) return;
+    		move = best;
+    		ponder_move = move; //The opponent's best reply as far as we can tell
+    		ponder_depth = depth;
+    		score = searcher.getRootScore();
+    		if(Searcher.isDecided(score)) return;
+    	}
+    }
+
+    private String checkPonder(CCBoardState board_state){ //Count whether the opponent played the reply we pondered on, and describe it for the log
+    	if(ponder_position == null) return "";
+    	boolean hit = false;
+    	if(ponder_move >= 0){
+    		ponder_position.applyPit(ponder_move);
+    		hit = ponder_position.getHashKey() == board_state.getHashKey();
+    		ponder_position.undo();
     	}
-    	return cmp; //Returns max value
-    }
-    private int minimize(CCBoardState board_state,int depth, int alpha, int beta,boolean maxPlayer){
-    	int cmp = Integer.MAX_VALUE; //Updates downward after first iteration , allows for Min
-    	ArrayList<CCMove> moves = board_state.getLegalMoves();
-    	for(CCMove m : moves){
-    		CCBoardState board = (CCBoardState) board_state.clone();
-    		board.move(m);
-    		cmp = Math.min(cmp, alphaBeta(board, depth-1, alpha, beta, maxPlayer));
-    		beta = Math.min(beta, cmp);//Min is used here since its min player
-    		if(beta <= alpha) break;
+    	ponder_count++;
+    	if(hit) ponder_hits++;
+    	String s = ", ponder " + (hit ? "hit" : "miss") + " at depth " + ponder_depth + " (" + Math.round(100 * getPonderHitRate()) + "% hits)";
+    	ponder_position = null;
+    	return s;
+    }
+
+    private int splitRoot(int depth, int first){ //Search the root moves in parallel, after searching first alone to get a bound
+    	int value = searcher.searchChild(first, depth, -Searcher.INFINITY, Searcher.INFINITY); //Usually the best move, so the others can be pruned against it
+    	if(searcher.isStopped()) return first;
+    	split_score = value;
+    	split_move = first;
+    	split_alpha.set(value);
+    	int moves = searcher.getBoard().legalPitMask() & ~(1 << first);
+    	ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[Integer.bitCount(moves)];
+    	for(int i = 0; moves != 0; moves &= moves - 1, i++){
+    		int m = Integer.numberOfTrailingZeros(moves);
+    		tasks[i] = pool.submit(() -> searchSplit(m, depth));
     	}
-    	return cmp; //Returns min value
+    	for(ForkJoinTask<?> task : tasks) task.join();
+    	return split_move;
     }
+
+    private void searchSplit(int m, int depth){ //Search one root move on a pool thread
+    	Searcher s = idle.poll(); //There is one helper for each pool thread, so one is always free
+    	try{
+    		int alpha = split_alpha.get(); //Moves that can't beat the best so far only need to be refuted
+    		int value = s.searchChild(m, depth, alpha, alpha + 1); //Zero window, only proves the move is no better
+    		if(value > alpha && !s.isStopped()) value = s.searchChild(m, depth, alpha, Searcher.INFINITY); //It is better, find by how much
+    		if(s.isStopped() || value <= alpha) return;
+    		synchronized(split_alpha){
+    			if(value > split_score){
+    				split_score = value;
+    				split_move = m;
+    			}
+    		}
+    		split_alpha.accumulateAndGet(value, Math::max);
+    	}finally{
+    		idle.add(s);
+    	}
+    }
+
+    private ForkJoinTask<?>[] startHelpers(){ //Start a lazy SMP helper search on each other thread
+    	ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[threads - 1]; //The calling thread is the last one
+    	for(int i = 0; i < tasks.length; i++){
+    		Searcher h = helpers[i];
+    		int id = i + 1;
+    		tasks[i] = pool.submit(() -> helperSearch(h, id));
+    	}
+    	return tasks;
+    }
+
+    private void helperSearch(Searcher s, int id){ //Iterative deepening like the main search, but starting each iteration from a different root move, and half the helpers one ply deeper
+    	int legal = s.getBoard().legalPitMask();
+    	int count = Integer.bitCount(legal);
+    	int score = 0;
+    	for(int depth = 1 + (id & 1); depth <= max_depth; depth++){
+    		int first = legal;
+    		for(int k = (id + depth) % count; k > 0; k--) first &= first - 1; //Pick the k-th legal pit
+    		s.aspirate(depth, Integer.numberOfTrailingZeros(first), score);
+    		if(s.isStopped()) return;
+    		score = s.getRootScore();
+    		if(Searcher.isDecided(score)) return;
+    	}
+    }
+
+    private boolean anyStopped(){
+    	if(searcher.isStopped()) return true;
+    	for(Searcher h : helpers) if(h.isStopped()) return true;
+    	return false;
+    }
+
+    private long timeBudget(CCBoardState board_state){ //Time we may spend on this move
+    	if(getTimeLimit() > 0) return Math.max(getTimeLimit() / 2, getTimeLimit() - TIME_MARGIN); //Finish before the client sends our best move so far, just before the deadline
+    	return board_state.getTurnsPlayed() == 0 ? first_move_time : move_time;
+    }
+
+    /** Set the time, in milliseconds, spent searching each move, when the
+     * server doesn't give a time limit. */
+    public void setMoveTime(long ms){ move_time = ms; }
+
+    /** Set the time, in milliseconds, spent searching the first move. */
+    public void setFirstMoveTime(long ms){ first_move_time = ms; }
+
+    /** Set the most time, in milliseconds, spent placing the seeds. */
+    public void setInitTime(long ms){ init_time = ms; }
+
+    /** Play the moves of the given book while the game is in it, or always search if null. */
+    public void setOpeningBook(CCOpeningBook book){ this.book = book; }
+
+    /** Limit the search to the given depth, however much time is left. */
+    public void setMaxDepth(int depth){ max_depth = Math.max(1, Math.min(depth, Searcher.MAX_DEPTH)); }
+
+    /** Return the number of nodes searched for the last move. */
+    public long getNodes(){ return nodes; }
+
+    /** Return the deepest iteration finished for the last move. */
+    public int getDepthReached(){ return depth_reached; }
+
+    /** Set the size of the transposition table, in megabytes. Clears it. */
+    public void setHashSize(int mb){ table = new TranspositionTable(mb); }
+
+    /** Set the number of threads searching each move. With more than one,
+     * they share the transposition table and split the work as set by setSearchMode. */
+    public void setThreads(int n){
+    	n = Math.max(1, n);
+    	if(n == threads) return;
+    	if(pool != null) pool.shutdown();
+    	threads = n;
+    	idle.clear();
+    	if(n == 1){
+    		pool = null;
+    		helpers = new Searcher[0];
+    		return;
+    	}
+    	pool = new ForkJoinPool(n);
+    	helpers = new Searcher[n];
+    	for(int i = 0; i < n; i++){
+    		helpers[i] = new Searcher();
+    		if(quiescence_depth >= 0) helpers[i].setQuiescenceDepth(quiescence_depth);
+    		idle.add(helpers[i]);
+    	}
+    }
+
+    public int getThreads(){ return threads; }
+
+    /** Set how many capture plies are searched past the nominal depth, 0 to
+     * score every leaf statically. Off by default, since it reaches each
+     * depth later and has not won more games at equal time. */
+    public void setQuiescenceDepth(int depth){
+    	searcher.setQuiescenceDepth(depth);
+    	for(Searcher h : helpers) h.setQuiescenceDepth(depth);
+    	quiescence_depth = depth;
+    }
+
+    /** Choose how several threads share a search. Has no effect with one thread. */
+    public void setSearchMode(SearchMode mode){ this.mode = mode; }
+
+    public SearchMode getSearchMode(){ return mode; }
+
+    /** Return the fraction of the opponent's moves that were the reply the
+     * ponder search expected, over all pondered moves so far. */
+    public double getPonderHitRate(){ return ponder_count == 0 ? 0 : (double) ponder_hits / ponder_count; }
+
+    /** Return the transposition table hit rate of the last search. */
+    public double getHashHitRate(){ return table.hitRate(); }
     
-    public int scoreValue(CCBoardState board_state){
-        int score = 0;//Score based on the seed advantage
-        int seeds = 0; //The seed advantage of the player
-        int[][] holes = board_state.getBoard();
-        int[] player = holes[0]; //Our holes 
-        int[] opponent = holes[1]; //Opponent's holes
-        if(board_state.haveWon())score = Integer.MAX_VALUE;
-        else if(board_state.haveLost()) score = Integer.MIN_VALUE;
-        else if(board_state.gameOver()) score = 0;
-        else{
-            for(int i = 0; i < holes.length; i++){
-                seeds += player[i]; //Increase seed advantage for seeds in your holes
-                seeds -= opponent[i]; //Decrease seed advantage for seeds in opponent's holes
-            }
-            score = seeds; 
-        }
-        return score;
+    public int scoreValue(CCBoardState board_state){ //Score for us, player 0, rather than for the side to move
+    	int score = Searcher.evaluate(board_state, 0);
+    	return board_state.getTurn() == 0 ? score : -score;
     }
 }
@@ -5,6 +5,12 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Boardgame player client code. Do not modify this class, implement
@@ -15,6 +21,9 @@ public class Client implements Runnable {
     protected static final int DEFAULT_PORT = Server.DEFAULT_PORT;
     protected static final String DEFAULT_PLAYER = "omweso.CCRandomPlayer";
     protected static final boolean DBGNET = false;
+    /** Time, in milliseconds, left before the server's deadline when
+     * the best move so far is sent instead of waiting for chooseMove. */
+    protected static final int DEADLINE_MARGIN = 150;
 
     private Socket socket;
     private PrintWriter sockOut;
@@ -26,6 +35,8 @@ public class Client implements Runnable {
     int playerID;
     Board board;
     boolean gameOver = false;
+    private ExecutorService chooser; // Runs chooseMove when the server sends a deadline
+    private Future<Move> pending; // chooseMove still stopping after its best move so far was sent
 
     private static void printUsage() {
         System.err.println(
@@ -75,6 +86,7 @@ public class Client implements Runnable {
 
     /** Process message received from server. */
     protected void processMessage( String msg ) {
+        finishPending();
         if( msg.startsWith( "GAMEOVER" ) ) {
             String[] tokens = msg.split(" ");
             String winner = tokens[tokens.length - 1];
@@ -85,10 +97,19 @@ public class Client implements Runnable {
                 board.forceWinner(Integer.parseInt(winner));
             }
 
+            player.stopPondering();
             BoardState bs = board.getStateFromPerspective(playerID);
             player.gameOver(msg, bs);
             this.gameOver = true;
         } else if( msg.startsWith( "PLAY" ) ){ // My turn
+            // Newer servers send the time allowed after the player name
+            String[] tokens = msg.split(" ");
+            long time_limit = 0;
+            if( tokens.length > 2 ) {
+                try { time_limit = Long.parseLong(tokens[2]); }
+                catch( NumberFormatException e ) {}
+            }
+            player.setTimeLimit(time_limit);
             playMove();
         } else {
             // Expect a move
@@ -100,6 +121,8 @@ public class Client implements Runnable {
                 return;
             }
 
+            player.stopPondering();
+
             try {
                 board.move(m);
             }catch( Exception e ){
@@ -109,20 +132,25 @@ public class Client implements Runnable {
             }
 
             player.movePlayed( board.getStateFromPerspective(playerID), m );
+
+            // Think on the opponent's time
+            if( player.isPonderingEnabled() && board.getWinner() == Board.NOBODY
+                    && board.getTurn() != playerID )
+                player.ponder( board.getStateFromPerspective(playerID) );
         }
     }
 
     protected void playMove() {
         Move myMove = null;
         try {
-            myMove = player.chooseMove( board.getStateFromPerspective(playerID) );
-            myMove.setPlayerID(playerID);
-            myMove.setFromBoard(false);
+            myMove = chooseMove( board.getStateFromPerspective(playerID) );
 
             if( myMove == null) {
                 System.err.println( "ABORTING: Player didn't return a move. Nothing to send to server!" );
                 return;
             }
+
+            myMove = myMove.forPlayer(playerID, false);
         } catch( Exception e ) {
             System.err.println( "ABORTING: Exception in " +
                 player.getClass().getName() + ".chooseMove()" );
@@ -144,6 +172,59 @@ public class Client implements Runnable {
         }
     }
 
+    /** Ask the player for a move. If the server gave a time limit, and
+     * the player offers a best move so far, that move is returned just
+     * before the deadline rather than waiting for chooseMove to finish. */
+    private Move chooseMove( BoardState bs ) throws Exception {
+        long time_limit = player.getTimeLimit();
+        if( time_limit <= 0 )
+            return player.chooseMove(bs);
+
+        long deadline = System.currentTimeMillis() + time_limit - DEADLINE_MARGIN;
+        if( chooser == null )
+            chooser = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "chooseMove");
+                t.setDaemon(true);
+                return t;
+            });
+        Future<Move> result = chooser.submit(() -> player.chooseMove(bs));
+        try {
+            return waitFor(result, Math.max(0, deadline - System.currentTimeMillis()));
+        } catch( TimeoutException e ) {
+            Move m = player.getBestMoveSoFar();
+            if( m == null )
+                return waitFor(result, -1); // Not an anytime player, wait as before
+            player.stopSearch();
+            pending = result; // Sent now, waited for before the player is used again
+            return m;
+        }
+    }
+
+    /** Wait for a chooseMove whose best move so far was sent at the
+     * deadline, so that it can't run into pondering or the next move. */
+    private void finishPending() {
+        if( pending == null )
+            return;
+        try {
+            waitFor(pending, -1);
+        } catch( Exception e ) {
+            System.err.println( "Exception in " + player.getClass().getName() +
+                ".chooseMove() after its best move was sent" );
+            e.printStackTrace();
+        }
+        pending = null;
+    }
+
+    /** Wait for the result of chooseMove, at most ms milliseconds if ms
+     * is not negative, and rethrow anything chooseMove threw. */
+    private static Move waitFor( Future<Move> result, long ms ) throws Exception {
+        try {
+            return ms < 0 ? result.get() : result.get(ms, TimeUnit.MILLISECONDS);
+        } catch( ExecutionException e ) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
     /** Connect to a server. This blocks until the game starts. */
     protected boolean connect() {
         System.out.println( "Connecting to " + serverName + ":" + serverPort + "... " );
@@ -199,6 +280,7 @@ public class Client implements Runnable {
         } catch(IOException e) {
             System.err.println( "Connection error: " + e );
             e.printStackTrace();
+            player.stopPondering();
             player.gameOver( "CONNECTION ERROR " + e, board.getStateFromPerspective(playerID));
         } finally { try{socket.close();} catch(Exception e) {} }
     }
@@ -24,6 +24,15 @@ abstract public class Move implements Cloneable {
     abstract public void setPlayerID(int player_id);
     /** Set whether the move comes from the board or a client */
     abstract public void setFromBoard(boolean from_board);
+    /** Return this move as played by the given player, with the
+     * given origin. The default implementation sets both on this
+     * instance and returns it. Moves that are shared between games
+     * (and so must not be modified) return a different instance. */
+    public Move forPlayer(int player_id, boolean from_board) {
+        setPlayerID(player_id);
+        setFromBoard(from_board);
+        return this;
+    }
     /** The player IDs to which this move should be
      * sent by the server. This method may return null to indicate
      * moves are to be sent to all players. The default
@@ -25,11 +25,24 @@ import boardgame.BoardState;
  * cleanup tasks. You may also override the movePlayed() method to
  * be notified whenever a move is received from the server.
  *
+ * A player may also think on the opponent's time by overriding ponder()
+ * and stopPondering(). Pondering can be turned off with
+ * setPonderingEnabled(false), or for every player in the JVM by
+ * starting it with -Dboardgame.ponder=false.
+ *
+ * A player whose search can be cut short may also override
+ * getBestMoveSoFar() and stopSearch(). The client then sends the best
+ * move so far itself just before the server's deadline, so chooseMove
+ * may use all the time given by getTimeLimit().
+ *
  * See the CCRandomPlayer class for an example implementation.
  */
 public abstract class Player {
     private String name;
     protected int playerID;
+    private boolean pondering_enabled =
+        Boolean.parseBoolean(System.getProperty("boardgame.ponder", "true"));
+    private volatile long time_limit = 0;
 
     /** Constructor: the name is used to identify the player to
      *  the server.*/
@@ -52,6 +65,35 @@ public abstract class Player {
         System.out.println( "Move: " + move.toPrettyString() );
     }
 
+    /** Return the best move found so far by a chooseMove call that is
+     * still running, or null if there is none yet. Called from another
+     * thread, so implementations must make the move safely visible. The
+     * default returns null, which makes the client wait for chooseMove.
+     */
+    public Move getBestMoveSoFar() { return null; }
+
+    /** Called after the client has sent the move from getBestMoveSoFar().
+     * Override it to make the running chooseMove return as soon as it
+     * can; its result will be ignored. The default does nothing.
+     */
+    public void stopSearch() {}
+
+    /** Called after a move when it is the opponent's turn, if pondering
+     * is enabled. Override it to start thinking in the background while
+     * the opponent chooses its move; it must return straight away. The
+     * default does nothing.
+     * @param board_state The current board state, from the perspective
+     *    of the player that owns the board. This is a copy, which the
+     *    background work may keep and modify.
+     */
+    public void ponder( BoardState board_state ) {}
+
+    /** Called when the opponent's move arrives and when the game ends.
+     * Override it to stop the work started by ponder(); it must not
+     * return until that work has stopped. The default does nothing.
+     */
+    public void stopPondering() {}
+
     /** Implement this method to provide the moves to be played. This
      * method is called whenever a move must be chosen, i.e. on this
      * player's turn.
@@ -89,4 +131,14 @@ public abstract class Player {
     final public int getColor() { return this.playerID; }
 
     final public String getName() { return this.name; }
+
+    /** Set by the client to the time, in milliseconds, the server allows
+     * for the move being chosen, or 0 if the server did not say. */
+    final public void setTimeLimit( long ms ) { this.time_limit = ms; }
+
+    final public long getTimeLimit() { return this.time_limit; }
+
+    final public void setPonderingEnabled( boolean enabled ) { this.pondering_enabled = enabled; }
+
+    final public boolean isPonderingEnabled() { return this.pondering_enabled; }
 } // End class
@@ -488,9 +488,7 @@ public class Server implements Runnable {
 
     /** Callback for timeout timer. Play a random move. */
     private synchronized void timeOut(int player_id) {
-        Move random_move = board.getRandomMove();
-        random_move.setPlayerID(player_id);
-        random_move.setFromBoard(false);
+        Move random_move = board.getRandomMove().forPlayer(player_id, false);
 
         players[player_id].setMove(random_move.toTransportable());
     }
@@ -589,13 +587,12 @@ public class Server implements Runnable {
             // One of the players to move
             for( int i = 0; i < players.length; i++ ) {
                 if( players[i].getPlayerID() == player_id ) {
-                    players[i].send("PLAY " + board.getNameForID(player_id));
+                    // The time allowed is sent along, so clients can keep to it
+                    boolean first = board.getTurnsPlayed() == 0;
+                    int move_timeout = first ? first_move_timeout : timeout;
+                    players[i].send("PLAY " + board.getNameForID(player_id) + " " + move_timeout);
 
-                    if(board.getTurnsPlayed() == 0){
-                        resetTimer(first_move_timeout, FIRST_MOVE_TIMEOUT_CUSHION, i);
-                    }else{
-                        resetTimer(timeout, DEFAULT_TIMEOUT_CUSHION, i);
-                    }
+                    resetTimer(move_timeout, first ? FIRST_MOVE_TIMEOUT_CUSHION : DEFAULT_TIMEOUT_CUSHION, i);
 
                     return;
                 }
@@ -0,0 +1,91 @@
+package mcts;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/* The search tree of mctsPlayer, stored in parallel primitive arrays.
+ *
+ * A node is an index into the arrays. The children of a node are created
+ * together, so they sit in one block starting at first_child, and a node
+ * needs no child list. Nothing is allocated once the pool is created, so
+ * trees of tens of millions of nodes cost the garbage collector nothing.
+ *
+ * wins counts half points, so a draw is worth 1 and a win 2. It is kept
+ * from the point of view of the player who made the move into the node.
+ *
+ * Several threads may search the tree at once. visits and wins are
+ * updated atomically, space is claimed by compare-and-set, and a node is
+ * expanded by the one thread that moves its first_child from UNEXPANDED
+ * to EXPANDING. Writing first_child publishes the child block, so
+ * child_count and move can be plain arrays. */
+final class NodePool {
+
+    static final int UNEXPANDED = -1;
+    static final int EXPANDING = -2; //Another thread is creating the children
+
+    final AtomicIntegerArray first_child; //Index of the first child, or UNEXPANDED or EXPANDING
+    final byte[] child_count;
+    final byte[] move; //Pit played to reach the node
+    final AtomicIntegerArray visits;
+    final AtomicIntegerArray wins; //Half points won by the player who played move
+
+    private final AtomicInteger size = new AtomicInteger(); //Nodes in use, never more than capacity
+
+    NodePool(int capacity){
+        first_child = new AtomicIntegerArray(capacity);
+        child_count = new byte[capacity];
+        move = new byte[capacity];
+        visits = new AtomicIntegerArray(capacity);
+        wins = new AtomicIntegerArray(capacity);
+    }
+
+    int capacity(){ return child_count.length; }
+
+    int size(){ return size.get(); }
+
+    /** Remove every node and create a root, returning its index. Must not
+     * run while another thread uses the tree. */
+    int reset(){
+        size.set(1);
+        clear(0, 1);
+        return 0;
+    }
+
+    /**
+     * Create one child of node for each bit of the pit mask. Returns false,
+     * leaving the node a leaf, if another thread is already expanding it or
+     * the pool is full. */
+    boolean expand(int node, int pits){
+        if(!first_child.compareAndSet(node, UNEXPANDED, EXPANDING)){
+            return false;
+        }
+
+        int count = Integer.bitCount(pits);
+        int first;
+        do{ //Claim the children's slots only if they fit, so size can't run past capacity or overflow
+            first = size.get();
+            if(first + count > capacity()){
+                first_child.set(node, UNEXPANDED);
+                return false;
+            }
+        }while(!size.compareAndSet(first, first + count));
+
+        clear(first, count);
+        for(int i = first; pits != 0; pits &= pits - 1, i++){
+            move[i] = (byte) Integer.numberOfTrailingZeros(pits);
+        }
+        child_count[node] = (byte) count;
+        first_child.set(node, first);
+        return true;
+    }
+
+    private void clear(int first, int count){
+        for(int i = first; i < first + count; i++){
+            first_child.set(i, UNEXPANDED);
+            child_count[i] = 0;
+            move[i] = -1;
+            visits.set(i, 0);
+            wins.set(i, 0);
+        }
+    }
+}
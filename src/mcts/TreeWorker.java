@@ -0,0 +1,136 @@
+package mcts;
+
+import omweso.CCPackedState;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* The state of one thread's playouts in mctsPlayer.
+ *
+ * A worker owns its scratch position, path and random generator, and
+ * shares only the tree with the other workers. While a thread walks down
+ * the tree it adds a visit to each node it passes but no win, a virtual
+ * loss that steers the other threads to different nodes until the
+ * playout's result is added. */
+class TreeWorker {
+
+    static private final int PLAYOUT_LIMIT = 200; //Plies after which a playout is scored by seed count
+
+    static private final int CHECK_INTERVAL = 64; //Playouts between updates of the shared playout total
+
+    private NodePool tree;
+    private CCPackedState root_state; //Position at the root, shared and only read
+    private final CCPackedState state = new CCPackedState(); //Scratch position for one playout
+    private int[] path = new int[256]; //Nodes from the root to the current leaf
+
+    private long seed; //xorshift state, never zero
+    private double exploration;
+    private long playouts; //Playouts run since newSearch
+    private volatile boolean stopped;
+
+    TreeWorker(long seed){ setSeed(seed); }
+
+    void setSeed(long seed){ this.seed = seed == 0 ? 1 : seed; }
+
+    /** Prepare to search the tree from the given root position. */
+    void newSearch(NodePool tree, CCPackedState root_state, double exploration){
+        this.tree = tree;
+        this.root_state = root_state;
+        this.exploration = exploration;
+        playouts = 0;
+        stopped = false;
+    }
+
+    long getPlayouts(){ return playouts; }
+
+    /** Make run return after its current playout. Safe to call from any thread. */
+    void stop(){ stopped = true; }
+
+    /** Run playouts from root until the deadline passes, stop is called, or
+     * the playouts of all workers, counted in total, reach limit. */
+    void run(int root, long deadline, AtomicLong total, long limit){
+        int done;
+        do{
+            done = 0;
+            do{ //At least one playout, so the root has children to choose from
+                playout(root);
+                done++;
+            }while(done < CHECK_INTERVAL && !stopped && System.currentTimeMillis() < deadline); //A stop or the deadline is seen after every playout
+            playouts += done;
+        }while(!stopped && total.addAndGet(done) < limit && System.currentTimeMillis() < deadline);
+    }
+
+    private void playout(int root){ //Select a leaf, expand it, play randomly to the end and record the result along the path
+        state.copyFrom(root_state);
+        int node = root;
+        int depth = 0;
+        path[0] = root;
+        tree.visits.incrementAndGet(root);
+        while(tree.first_child.get(node) >= 0 && !state.gameOver()){ //Walk down the tree
+            node = select(node);
+            tree.visits.incrementAndGet(node); //Virtual loss until the result is in
+            state.move(tree.move[node]);
+            path[++depth] = node;
+            if(depth + 2 >= path.length){
+                path = java.util.Arrays.copyOf(path, 2 * path.length);
+            }
+        }
+
+        if(!state.gameOver() && (tree.visits.get(node) > 1 || node == root)){ //Expand a leaf on its second visit, so single playouts cost no nodes
+            int pits = state.legalPitMask();
+            if(tree.expand(node, pits)){ //Otherwise the pool is full or another thread got there first, and the leaf stays a leaf
+                node = tree.first_child.get(node) + random(Integer.bitCount(pits));
+                tree.visits.incrementAndGet(node);
+                state.move(tree.move[node]);
+                path[++depth] = node;
+            }
+        }
+
+        int result = simulate(); //Half points for the player at the root
+        for(int d = depth; d >= 0; d--){
+            tree.wins.addAndGet(path[d], (d & 1) == 1 ? result : 2 - result); //Odd depths are moves by the player at the root
+        }
+    }
+
+    private int select(int node){ //Child with the best UCT value, unvisited children first
+        int first = tree.first_child.get(node);
+        int end = first + tree.child_count[node];
+        double log_visits = Math.log(tree.visits.get(node));
+        int best = first;
+        double best_value = Double.NEGATIVE_INFINITY;
+        for(int c = first; c < end; c++){
+            int v = tree.visits.get(c);
+            if(v == 0){
+                return c;
+            }
+            double value = tree.wins.get(c) / (2.0 * v) + exploration * Math.sqrt(log_visits / v);
+            if(value > best_value){
+                best_value = value;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private int simulate(){ //Play random moves from state, returning half points for player 0: 2 for a win, 1 for a draw
+        for(int plies = 0; !state.gameOver(); plies++){
+            if(plies == PLAYOUT_LIMIT){ //Too long, the player with more seeds is probably winning
+                int diff = state.getSeedCount(0) - state.getSeedCount(1);
+                return diff > 0 ? 2 : diff < 0 ? 0 : 1;
+            }
+            int legal = state.legalPitMask();
+            for(int k = random(Integer.bitCount(legal)); k > 0; k--){
+                legal &= legal - 1; //Drop pits until the chosen one is lowest
+            }
+            state.move(Integer.numberOfTrailingZeros(legal));
+        }
+        int winner = state.getWinner();
+        return winner == 0 ? 2 : winner == 1 ? 0 : 1; //A draw or a cancelled game is worth half
+    }
+
+    private int random(int n){ //Uniform in [0, n), from an xorshift generator
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return (int) (((seed >>> 32) * n) >>> 32);
+    }
+}
@@ -0,0 +1,227 @@
+package mcts;
+
+import boardgame.Board;
+import boardgame.BoardState;
+import boardgame.Move;
+import boardgame.Player;
+import boardgame.Server;
+import omweso.CCBoardState;
+import omweso.CCBoard;
+import omweso.CCInitOptimizer;
+import omweso.CCMove;
+import omweso.CCOpeningBook;
+import omweso.CCPackedState;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Monte Carlo Tree Search with UCT selection and random playouts */
+public class mctsPlayer extends Player {
+
+    static private String default_name = "mcts";
+
+    static private final long TIME_MARGIN = 300; //Milliseconds kept in hand for sending the move before the server's timeout
+
+    static private final int DEFAULT_TREE_SIZE = 1 << 22; //Nodes in the pool, about 60 MB
+
+    private long move_time = Server.DEFAULT_TIMEOUT - TIME_MARGIN; //Search time for normal moves
+    private long first_move_time = Server.FIRST_MOVE_TIMEOUT - TIME_MARGIN; //Search time for the first move
+    private long init_time = CCInitOptimizer.DEFAULT_TIME_LIMIT; //Most time spent choosing where to place the seeds
+    private CCOpeningBook book = CCOpeningBook.getDefault(); //Moves for the opening, or null to always search
+    private long playout_limit = Long.MAX_VALUE; //Most playouts per move, whatever the time
+
+    private double exploration = Math.sqrt(2); //UCT exploration constant
+
+    private NodePool tree; //Created when first needed, and reused for every move
+    private int tree_size = DEFAULT_TREE_SIZE;
+
+    private final CCPackedState root_state = new CCPackedState(); //Position being searched
+    private final CCPackedState last_root = new CCPackedState(); //Position searched for our last move
+    private final CCPackedState after_move = new CCPackedState(); //Scratch positions for finding the reused subtree
+    private final CCPackedState after_reply = new CCPackedState();
+    private volatile int search_root = -1; //Root of the running search, read by the client at the deadline
+    private int last_move = -1; //Node of the move we played last, or -1 if the tree can't be reused
+    private long playouts; //Playouts run for the last move
+
+    private int threads = 1; //Threads running playouts
+    private ForkJoinPool pool; //Runs the other threads' playouts when threads > 1
+    private TreeWorker[] workers = { new TreeWorker(System.nanoTime()) }; //Playout state for each thread, the calling thread's first
+
+    public mctsPlayer() { super(default_name); }
+    public mctsPlayer(String s) { super(s); }
+
+    public Board createBoard() { return new CCBoard(); }
+
+    public Move chooseMove(BoardState bs) //Method decides which hole to pick up seeds from
+    {
+        CCBoardState board_state = (CCBoardState) bs;
+        CCMove book_move = book == null ? null : book.lookup(board_state);
+        if(book_move != null){ //Known opening position, nothing to search
+            last_move = -1; //Tree wasn't searched from here
+            return book_move;
+        }
+        if(!board_state.isInitialized()){ //Game Board needs to be initialized before selecting a move
+            last_move = -1; //New game
+            return initialize(board_state);
+        }else{
+            return treeSearch(board_state);
+        }
+    }
+
+    public CCMove initialize(CCBoardState board_state){ //Places the seeds where they won most often in quick self-play games
+        allocateTree(); //Now, on the setup's long clock, rather than on the first pit move's
+        CCInitOptimizer optimizer = new CCInitOptimizer();
+        optimizer.setTimeLimit(Math.min(init_time, timeBudget(board_state) / 2)); //Leave plenty of the first move's time in hand
+        return optimizer.optimize(board_state);
+    }
+
+    public CCMove treeSearch(CCBoardState board_state){ //Run playouts until the time is up, and play the root move tried most
+        long start = System.currentTimeMillis();
+        long deadline = start + timeBudget(board_state);
+        long relay_cycles = CCBoardState.getRelayCyclesDetected(); //Moves cancelled early by their relays cycling, counted for the statistics
+        int legal = board_state.legalPitMask();
+        if(Integer.bitCount(legal) == 1){
+            last_move = -1; //Tree wasn't searched from here
+            return CCMove.ofPit(Integer.numberOfTrailingZeros(legal)); //Nothing to decide
+        }
+
+        allocateTree();
+        root_state.copyFrom(new CCPackedState(board_state));
+        int reply = findReply();
+        int root = reply >= 0 && tree.size() <= tree.capacity() / 2 ? reply : tree.reset(); //Start afresh if the subtree isn't there or has too little room to grow
+        int reused = tree.visits.get(root);
+        AtomicLong total = new AtomicLong(); //Playouts by all threads
+        for(TreeWorker w : workers) w.newSearch(tree, root_state, exploration);
+        search_root = root;
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[threads - 1];
+        for(int i = 1; i < threads; i++){
+            TreeWorker w = workers[i];
+            tasks[i - 1] = pool.submit(() -> w.run(root, deadline, total, playout_limit));
+        }
+        workers[0].run(root, deadline, total, playout_limit);
+        for(ForkJoinTask<?> task : tasks) task.join();
+        playouts = 0;
+        for(TreeWorker w : workers) playouts += w.getPlayouts();
+
+        int best = mostVisited(root);
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println("mcts: " + playouts + " playouts in " + time + " ms (" + (playouts * 1000 / time) +
+            "/s), " + tree.size() + " nodes, " + reused + " playouts reused, win rate " +
+            Math.round(50.0 * tree.wins.get(best) / tree.visits.get(best)) + "%, relay cycles cut " +
+            (CCBoardState.getRelayCyclesDetected() - relay_cycles) +
+            (threads > 1 ? ", " + threads + " threads" : ""));
+        last_root.copyFrom(root_state);
+        last_move = best;
+        search_root = -1; //Only now, so the client can still send the best move while the statistics are printed
+        return CCMove.ofPit(tree.move[best]);
+    }
+
+    private void allocateTree(){ //Create the tree if there is none of the size asked for
+        if(tree == null || tree.capacity() != tree_size){
+            tree = new NodePool(tree_size);
+            last_move = -1;
+        }
+    }
+
+    private int mostVisited(int node){ //Child of node played most often
+        int best = -1;
+        int first = tree.first_child.get(node);
+        for(int c = first, end = first + tree.child_count[node]; first >= 0 && c < end; c++){
+            if(best < 0 || tree.visits.get(c) > tree.visits.get(best)){
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /** Return the root move tried most so far by the running search, or
+     * null if its root hasn't been expanded yet. */
+    public Move getBestMoveSoFar(){
+        int root = search_root;
+        int best = root < 0 ? -1 : mostVisited(root);
+        return best < 0 ? null : CCMove.ofPit(tree.move[best]);
+    }
+
+    /** Stop the running search, which then returns its best move so far. */
+    public void stopSearch(){
+        for(TreeWorker w : workers) w.stop();
+    }
+
+    private int findReply(){ //Return the node for root_state below our last move, or -1 if the opponent's reply was never expanded
+        if(last_move < 0){
+            return -1;
+        }
+
+        int first = tree.first_child.get(last_move);
+        if(first < 0){
+            return -1;
+        }
+
+        after_move.copyFrom(last_root);
+        after_move.move(tree.move[last_move]);
+        for(int c = first, end = first + tree.child_count[last_move]; c < end; c++){
+            after_reply.copyFrom(after_move);
+            after_reply.move(tree.move[c]);
+            if(after_reply.equals(root_state)){
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private long timeBudget(CCBoardState board_state){ //Time we may spend on this move
+        if(getTimeLimit() > 0) return Math.max(getTimeLimit() / 2, getTimeLimit() - TIME_MARGIN); //Finish before the client sends our best move so far, just before the deadline
+        return board_state.getTurnsPlayed() == 0 ? first_move_time : move_time;
+    }
+
+    /** Set the time, in milliseconds, spent searching each move, when the
+     * server doesn't give a time limit. */
+    public void setMoveTime(long ms){ move_time = ms; }
+
+    /** Set the time, in milliseconds, spent searching the first move. */
+    public void setFirstMoveTime(long ms){ first_move_time = ms; }
+
+    /** Set the most time, in milliseconds, spent placing the seeds. */
+    public void setInitTime(long ms){ init_time = ms; }
+
+    /** Play the moves of the given book while the game is in it, or always search if null. */
+    public void setOpeningBook(CCOpeningBook book){ this.book = book; }
+
+    /** Stop each search after about this many playouts, however much time is left. */
+    public void setPlayoutLimit(long n){ playout_limit = Math.max(1, n); }
+
+    /** Set the number of nodes in the search tree. Takes 14 bytes a node. */
+    public void setTreeSize(int nodes){ tree_size = Math.max(2 * CCBoardState.SIZE + 1, nodes); }
+
+    /** Set the UCT exploration constant. */
+    public void setExploration(double c){ exploration = c; }
+
+    /** Set the number of threads running playouts on the shared tree. */
+    public void setThreads(int n){
+        n = Math.max(1, n);
+        if(n == threads) return;
+        if(pool != null) pool.shutdown();
+        pool = n > 1 ? new ForkJoinPool(n - 1) : null; //The calling thread is the last one
+        TreeWorker[] old = workers;
+        workers = java.util.Arrays.copyOf(old, n);
+        for(int i = old.length; i < n; i++){
+            workers[i] = new TreeWorker(System.nanoTime() + i);
+        }
+        threads = n;
+    }
+
+    public int getThreads(){ return threads; }
+
+    /**
+     * Seed the random playouts, so that with one thread and a playout
+     * limit the same position always gives the same move. */
+    public void setSeed(long seed){
+        for(int i = 0; i < workers.length; i++){
+            workers[i].setSeed(seed + 0x9E3779B97F4A7C15L * i);
+        }
+    }
+
+    /** Return the number of playouts run for the last move. */
+    public long getPlayouts(){ return playouts; }
+}
@@ -71,15 +71,10 @@ public class CCBoard extends Board{
 
     public BoardState getStateFromPerspective(int player_id){
         // CCBoard stores its board state from the perspective of
-        // player 0, so only have to switch perspective if player_id == 1.
-        // In either case, we clone the board state.
-        if(player_id == 0){
-            return (BoardState) board_state.clone();
-        }else{
-            CCBoardState bs = (CCBoardState) board_state.clone();
-            bs.switchPerspective();
-            return (BoardState) bs;
-        }
+        // player 0. The view shares the pits with our board state until
+        // either is changed, so nothing is copied unless the agent (or
+        // this board) actually modifies it.
+        return board_state.getView(player_id);
     }
 
     /* Methods called by the GUI during initialization. */
@@ -97,7 +92,7 @@ public class CCBoard extends Board{
         if(!board_state.isInitialized()){
             return init_state[player_id][pit];
         }else{
-            return board_state.getBoard()[player_id][pit];
+            return board_state.getSeeds(player_id, pit);
         }
     }
 
@@ -244,7 +239,7 @@ public class CCBoard extends Board{
     public Move parseMove(String str)
                throws NumberFormatException, IllegalArgumentException {
 
-        return new CCMove(str);
+        return CCMove.parse(str);
     }
 
     @Override
@@ -156,7 +156,7 @@ implements MouseListener, MouseMotionListener, ComponentListener {
                 pit = board_pit[1];
 
                 if(player_id == board.getTurn()){
-                    CCMove move = new CCMove(pit);
+                    CCMove move = CCMove.ofPit(pit);
                     if(board.isLegal(move)){
                         list.moveEntered(move);
                         cancelMoveRequest();
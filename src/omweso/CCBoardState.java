@@ -3,6 +3,8 @@ package omweso;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 import boardgame.Board;
 import boardgame.BoardState;
@@ -20,7 +22,11 @@ import omweso.CCMove.MoveType;
  *
  * This class is intended to give the state of the board from an agent's perspective,
  * and the agents should always assume they are player 0. The methods haveWon and haveLost
- * operate from the perspective of the agent operating on this instance. */
+ * operate from the perspective of the agent operating on this instance.
+ *
+ * Seeds never leave the board: a capture moves the opponent's seeds to the capturer's
+ * side, so once both players have placed theirs every position holds 2 * NUM_INITIAL_SEEDS
+ * seeds. Only a cancelled move, which ends the game with seeds still in hand, breaks this. */
 public class CCBoardState extends BoardState{
 
     // Width of the board, in pits.
@@ -35,7 +41,8 @@ public class CCBoardState extends BoardState{
     // Maximum number of iterations to implement a move.
     public final static int MAX_TURN_LENGTH = 200;
 
-    Random rand = new Random();
+    // Number of moves cancelled early because their relays were found to cycle.
+    private final static AtomicLong relay_cycles = new AtomicLong();
 
     public enum Direction{
         CCW, CW
@@ -49,8 +56,15 @@ public class CCBoardState extends BoardState{
      * that player. So board[0][0] is the left most pit closest to Player 0,
      * board[0][2 * SIZE - 1] is the left most pit second closest to Player 0
      * (all from Player 0's perspective). Similarly, board[1][0] is the left
-     * most pit (from Player 1's perspective) that is closest to Player 1, etc.*/
-    private int[][] board = new int[2][2*SIZE];
+     * most pit (from Player 1's perspective) that is closest to Player 1, etc.
+     *
+     * The two rows may be shared with other states created by getView; see
+     * shared_rows. */
+    private int[][] board = new int[2][];
+
+    // Whether the row arrays may be shared with another state. Set on both
+    // states by getView, and cleared by copying the rows before any change.
+    private boolean shared_rows;
 
     private int turn_number;
 
@@ -62,7 +76,63 @@ public class CCBoardState extends BoardState{
     // ID of the player that plays first after init step
     private int plays_first;
 
-    private CCBoardState(int[][] board, int turn_number, int winner, int turn_player, int plays_first){
+    /* Undo journal used by applyPit/undo. Allocated on first use and reused
+     * for the lifetime of the state; clones start with an empty journal. */
+
+    // Pits overwritten since the matching applyPit, as (player, pit, old seeds).
+    private int[] undo_pits;
+    private int undo_pits_top;
+
+    // One frame per applied move: journal top, turn number, turn player,
+    // winner and the dirty mask of the enclosing frame.
+    private int[] undo_frames;
+    private int undo_frames_top;
+
+    // Bit (player * 2 * SIZE + pit) is set once that pit has been journaled
+    // in the current frame, so each pit is recorded at most once per move.
+    private int dirty;
+
+    private final static int FRAME_SIZE = 5;
+
+    /* Zobrist hashing. ZOBRIST[s][pit][seeds] is the key for a pit of the
+     * row in slot s (0 for the owner's row, 1 for the opponent's) holding
+     * the given number of seeds. Generated from a fixed seed so keys are
+     * stable across runs. */
+    private final static long[][][] ZOBRIST = new long[2][2 * SIZE][128];
+
+    // Included in the key when player 1 is to move.
+    private final static long SIDE_KEY;
+
+    // Included in the key on the first turn, when no capture is allowed.
+    private final static long NO_CAPTURE_KEY;
+
+    static {
+        Random keys = new Random(0x0E3C5A17L);
+        for(int slot = 0; slot < 2; slot++){
+            for(int pit = 0; pit < 2 * SIZE; pit++){
+                for(int seeds = 0; seeds < 128; seeds++){
+                    ZOBRIST[slot][pit][seeds] = keys.nextLong();
+                }
+            }
+        }
+        SIDE_KEY = keys.nextLong();
+        NO_CAPTURE_KEY = keys.nextLong();
+    }
+
+    // XOR of the keys of all pits, from the current perspective.
+    private long hash;
+
+    // row_keys[2 * p + s] is the key of player p's row as if it were in
+    // slot s, so that switchPerspective can swap rows without rehashing.
+    private long[] row_keys;
+
+    // Number of seeds on each player's side.
+    private int[] seed_totals;
+
+    // Bitmask of each player's pits holding more than one seed.
+    private int[] playable;
+
+    CCBoardState(int[][] board, int turn_number, int winner, int turn_player, int plays_first){
         super();
 
         this.board[0] = Arrays.copyOf(board[0], 2 * SIZE);
@@ -72,6 +142,11 @@ public class CCBoardState extends BoardState{
         this.winner = winner;
         this.turn_player = turn_player;
         this.plays_first = plays_first;
+
+        this.row_keys = new long[4];
+        this.seed_totals = new int[2];
+        this.playable = new int[2];
+        recount();
     }
 
     public CCBoardState() {
@@ -82,6 +157,40 @@ public class CCBoardState extends BoardState{
         winner = Board.NOBODY;
         turn_player = 0;
         plays_first = 0;
+
+        row_keys = new long[4];
+        seed_totals = new int[2];
+        playable = new int[2];
+        recount();
+    }
+
+    /**
+     * Create a copy of another state. If share is set the copy shares the
+     * other state's rows, and both are marked as sharing so whichever is
+     * changed first copies its rows. Otherwise the rows are copied now and
+     * the other state is left as it was. */
+    private CCBoardState(CCBoardState other, boolean share){
+        super();
+
+        if(share){
+            this.board[0] = other.board[0];
+            this.board[1] = other.board[1];
+            this.shared_rows = true;
+            other.shared_rows = true;
+        }else{
+            this.board[0] = Arrays.copyOf(other.board[0], 2 * SIZE);
+            this.board[1] = Arrays.copyOf(other.board[1], 2 * SIZE);
+        }
+
+        this.turn_number = other.turn_number;
+        this.winner = other.winner;
+        this.turn_player = other.turn_player;
+        this.plays_first = other.plays_first;
+
+        this.hash = other.hash;
+        this.row_keys = Arrays.copyOf(other.row_keys, 4);
+        this.seed_totals = Arrays.copyOf(other.seed_totals, 2);
+        this.playable = Arrays.copyOf(other.playable, 2);
     }
 
     /* Methods for use by agent code. */
@@ -115,6 +224,46 @@ public class CCBoardState extends BoardState{
         return winner == 1;
     }
 
+    /**
+     * Return a 64 bit Zobrist key of the pits, the player to move and
+     * whether captures are allowed yet. Maintained incrementally as seeds
+     * are sown and captured, so this is free to call at every search node.
+     * Equal positions always have equal keys; the turn number is otherwise
+     * not part of the key, nor is the winner. */
+    public long getHashKey() {
+        long key = turn_player == 1 ? hash ^ SIDE_KEY : hash;
+        return turn_number <= 1 ? key ^ NO_CAPTURE_KEY : key;
+    }
+
+    /**
+     * Return the number of seeds on the given player's side. Kept up to
+     * date as seeds are sown and captured, so this is O(1). */
+    public int getSeedCount(int player_id) {
+        return seed_totals[player_id];
+    }
+
+    /**
+     * Return the number of the given player's pits holding more than one
+     * seed, i.e. the number of moves that player would have if it were
+     * their turn. O(1). */
+    public int getPlayablePitCount(int player_id) {
+        return Integer.bitCount(playable[player_id]);
+    }
+
+    /**
+     * Return how many moves, over all board states and packed states in
+     * this JVM, were cancelled as soon as their relays were found to
+     * repeat, rather than after MAX_TURN_LENGTH sowings. alphaBetaPlayer
+     * and mctsPlayer print the count for each move they search. */
+    public static long getRelayCyclesDetected() {
+        return relay_cycles.get();
+    }
+
+    /** Record that a move was cancelled because its relays cycle. */
+    static void countRelayCycle() {
+        relay_cycles.incrementAndGet();
+    }
+
     /** Whether the game has ended in a draw. */
     public boolean tieGame() {
         return winner == Board.DRAW;
@@ -144,6 +293,8 @@ public class CCBoardState extends BoardState{
 
     /** Return a random legal move. */
     public Move getRandomMove(){
+        Random rand = ThreadLocalRandom.current();
+
         if(!isInitialized()){
             // Throw each seed into a random pit.
             int[] initial_pits = new int[2 * SIZE];
@@ -163,9 +314,35 @@ public class CCBoardState extends BoardState{
     /**
      * Get board from the perspective of the owner of the board.
      * First sub array gives that player's pit information, second
-     * sub array gives opponent's pit information. */
+     * sub array gives opponent's pit information.
+     *
+     * The arrays returned are a copy, since writing to the state's own
+     * pits would leave its hash key, seed totals and legal pits stale;
+     * getSeeds is cheaper for reading single pits. */
     public int[][] getBoard(){
-        return board;
+        return new int[][] {Arrays.copyOf(board[0], 2 * SIZE), Arrays.copyOf(board[1], 2 * SIZE)};
+    }
+
+    /**
+     * Return the number of seeds in the given player's pit, from the
+     * perspective of the owner of the board. */
+    public int getSeeds(int player_id, int pit){
+        return board[player_id][pit];
+    }
+
+    /**
+     * Return this state as seen by the given player, which becomes player 0
+     * of the returned state. The board is not copied: the two states share
+     * their pits until either of them is changed, so this is cheap enough to
+     * call for every move received. */
+    public CCBoardState getView(int player_id){
+        CCBoardState view = new CCBoardState(this, true);
+
+        if(player_id != 0){
+            view.switchPerspective();
+        }
+
+        return view;
     }
 
     /**
@@ -174,41 +351,95 @@ public class CCBoardState extends BoardState{
      * initialization moves. (That would be a lot of moves!)
      *
      * Returned moves are assumed to be moves for the player whose turn
-     * it currently is. */
+     * it currently is. They are new moves, not the shared ones from
+     * CCMove.ofPit, so callers may set their player; searches should use
+     * legalPitMask, which allocates nothing. */
     public ArrayList<CCMove> getLegalMoves(){
         ArrayList<CCMove> legal_moves = new ArrayList<CCMove>();
 
-        for(int i = 0; i < 2 * SIZE; i++){
-            CCMove move = new CCMove(i);
-            if(isLegal(move)){
-                legal_moves.add(move);
-            }
+        for(int mask = legalPitMask(); mask != 0; mask &= mask - 1){
+            legal_moves.add(new CCMove(Integer.numberOfTrailingZeros(mask)));
         }
 
         return legal_moves;
     }
 
+    /**
+     * Return the legal pit-selection moves for the player whose turn it
+     * is as a bitmask: bit i is set iff pit i holds more than one seed.
+     * Zero before the initialization phase is complete. Search code can
+     * walk the moves without allocating anything:
+     *
+     *     for(int mask = bs.legalPitMask(); mask != 0; mask &= mask - 1){
+     *         int pit = Integer.numberOfTrailingZeros(mask);
+     *         ...
+     *     }
+     */
+    public int legalPitMask(){
+        if(!isInitialized()){
+            return 0;
+        }
+
+        return playable[turn_player];
+    }
+
+    /**
+     * Return whether playing the given pit ends its first sowing with a
+     * capture. Relays are not followed, so this is a cheap hint for move
+     * ordering and quiescence search rather than a full test. Assumes the
+     * pit is a legal move for the player whose turn it is. */
+    public boolean isCapturingMove(int pit){
+        int[] pits = board[turn_player];
+        int num_seeds = pits[pit];
+        int laps = num_seeds / (2 * SIZE);
+        int end_pit = (pit + num_seeds) % (2 * SIZE);
+
+        // The starting pit is emptied before sowing.
+        int landed = end_pit == pit ? laps : pits[end_pit] + laps + 1;
+
+        return landed > 1 && canCapture(turn_player, end_pit);
+    }
+
+    /**
+     * Return a bitmask of the legal pits for which isCapturingMove is
+     * true: bit i is set if playing pit i captures on its first sowing. */
+    public int capturingMoveMask(){
+        int captures = 0;
+        if(turn_number <= 1){
+            return captures; // No captures on the first turn
+        }
+
+        for(int legal = legalPitMask(); legal != 0; legal &= legal - 1){
+            int pit = Integer.numberOfTrailingZeros(legal);
+            if(isCapturingMove(pit)){
+                captures |= 1 << pit;
+            }
+        }
+        return captures;
+    }
+
     /**
      * Return whether the supplied move is legal given the current
      * state of the board. */
     public boolean isLegal(CCMove m){
 
-        if(!isInitialized()){
-            if(m.getMoveType() == MoveType.INIT){
-                int[] init = m.getInit();
+        if(m.move_type == MoveType.PIT){
+            int pit = m.getPit();
+            return pit >= 0 && pit < 2 * SIZE && ((legalPitMask() >>> pit) & 1) != 0;
+        }
 
-                int total_seeds = 0;
-                for(int i = 0; i < 2 * SIZE; i++){
-                    total_seeds += init[i];
-                }
+        if(!isInitialized() && m.move_type == MoveType.INIT){
+            int[] init = m.getInit();
 
-                return total_seeds == NUM_INITIAL_SEEDS;
-            }else{
-                return false;
+            int total_seeds = 0;
+            for(int i = 0; i < 2 * SIZE; i++){
+                total_seeds += init[i];
             }
+
+            return total_seeds == NUM_INITIAL_SEEDS;
         }
 
-        return m.move_type == MoveType.PIT && board[turn_player][m.getPit()] > 1;
+        return false;
     }
 
     /**
@@ -230,8 +461,13 @@ public class CCBoardState extends BoardState{
                 "Move: " + ccm.toPrettyString());
         }
 
+        ensureOwnRows();
+
         if(!isInitialized()){
-            board[turn_player] = Arrays.copyOf(ccm.getInit(), 2 * SIZE);
+            int[] init = ccm.getInit();
+            for(int i = 0; i < 2 * SIZE; i++){
+                setSeeds(turn_player, i, init[i]);
+            }
         }else{
             int start_pit = ccm.getPit();
             int end_pit = runMove(start_pit);
@@ -245,34 +481,214 @@ public class CCBoardState extends BoardState{
         updateWinner(turn_player);
     }
 
+    /**
+     * Play the given pit for the player whose turn it is, recording
+     * enough information for undo() to restore the current state exactly.
+     * Intended for search code: instead of cloning the state for every
+     * child, apply a move, search, then undo it. Calls must be strictly
+     * nested, and move() and switchPerspective() must not be called while
+     * any applied move is outstanding.
+     *
+     * The move is assumed to be legal (see isLegal); no check is done.
+     * Returns the pit in which the final seed was sown. */
+    public int applyPit(int pit){
+        ensureOwnRows();
+
+        if(undo_frames == null){
+            undo_frames = new int[FRAME_SIZE * 16];
+            undo_pits = new int[4 * SIZE * 4];
+        }else if(undo_frames_top + FRAME_SIZE > undo_frames.length){
+            undo_frames = Arrays.copyOf(undo_frames, 2 * undo_frames.length);
+        }
+
+        int f = undo_frames_top;
+        undo_frames[f] = undo_pits_top;
+        undo_frames[f + 1] = turn_number;
+        undo_frames[f + 2] = turn_player;
+        undo_frames[f + 3] = winner;
+        undo_frames[f + 4] = dirty;
+        undo_frames_top += FRAME_SIZE;
+        dirty = 0;
+
+        int end_pit = runMove(pit);
+
+        if(turn_player == 1){
+            turn_number++;
+        }
+
+        turn_player = (turn_player + 1) % 2;
+        updateWinner(turn_player);
+
+        return end_pit;
+    }
+
+    /**
+     * Take back the most recent move made with applyPit, restoring the
+     * pits, turn number, player to move and winner. */
+    public void undo(){
+        if(undo_frames_top == 0){
+            throw new IllegalStateException("No applied move to undo.");
+        }
+
+        // A view may have been taken since the move was applied.
+        ensureOwnRows();
+
+        undo_frames_top -= FRAME_SIZE;
+        int f = undo_frames_top;
+        int base = undo_frames[f];
+
+        // Each pit appears at most once in a frame, so order does not matter.
+        while(undo_pits_top > base){
+            int entry = undo_pits[--undo_pits_top];
+            writeSeeds(entry >>> 13, (entry >>> 8) & 0x1F, entry & 0xFF);
+        }
+
+        turn_number = undo_frames[f + 1];
+        turn_player = undo_frames[f + 2];
+        winner = undo_frames[f + 3];
+        dirty = undo_frames[f + 4];
+    }
+
     /* Helper methods for implementing game logic. */
 
+    /** Copy the rows if they may be shared with another state. */
+    private void ensureOwnRows(){
+        if(shared_rows){
+            board[0] = Arrays.copyOf(board[0], 2 * SIZE);
+            board[1] = Arrays.copyOf(board[1], 2 * SIZE);
+            shared_rows = false;
+        }
+    }
+
+    /**
+     * Set the number of seeds in a pit. All changes to the pits made by
+     * the game logic go through here, so that applied moves can be undone.
+     * Package-private for CCSowingBench. */
+    void setSeeds(int player_id, int pit, int num_seeds){
+        if(undo_frames_top > 0){
+            int bit = 1 << (player_id * 2 * SIZE + pit);
+            if((dirty & bit) == 0){
+                dirty |= bit;
+                if(undo_pits_top == undo_pits.length){
+                    undo_pits = Arrays.copyOf(undo_pits, 2 * undo_pits.length);
+                }
+                undo_pits[undo_pits_top++] =
+                    (player_id << 13) | (pit << 8) | (board[player_id][pit] & 0xFF);
+            }
+        }
+
+        writeSeeds(player_id, pit, num_seeds);
+    }
+
+    /**
+     * Store a pit's contents and update the hash keys, seed totals and
+     * playable pits accordingly. */
+    private void writeSeeds(int player_id, int pit, int num_seeds){
+        seed_totals[player_id] += num_seeds - board[player_id][pit];
+
+        if(num_seeds > 1){
+            playable[player_id] |= 1 << pit;
+        }else{
+            playable[player_id] &= ~(1 << pit);
+        }
+
+        int old_seeds = board[player_id][pit] & 0x7F;
+        int new_seeds = num_seeds & 0x7F;
+
+        long own_delta = ZOBRIST[0][pit][old_seeds] ^ ZOBRIST[0][pit][new_seeds];
+        long opp_delta = ZOBRIST[1][pit][old_seeds] ^ ZOBRIST[1][pit][new_seeds];
+
+        row_keys[2 * player_id] ^= own_delta;
+        row_keys[2 * player_id + 1] ^= opp_delta;
+        hash ^= player_id == 0 ? own_delta : opp_delta;
+
+        board[player_id][pit] = num_seeds;
+    }
+
+    /** Recompute the hash keys, seed totals and playable pits from scratch. */
+    private void recount(){
+        for(int p = 0; p < 2; p++){
+            row_keys[2 * p] = 0;
+            row_keys[2 * p + 1] = 0;
+            seed_totals[p] = 0;
+            playable[p] = 0;
+
+            for(int pit = 0; pit < 2 * SIZE; pit++){
+                int seeds = board[p][pit] & 0x7F;
+                row_keys[2 * p] ^= ZOBRIST[0][pit][seeds];
+                row_keys[2 * p + 1] ^= ZOBRIST[1][pit][seeds];
+
+                seed_totals[p] += board[p][pit];
+                if(board[p][pit] > 1){
+                    playable[p] |= 1 << pit;
+                }
+            }
+        }
+
+        hash = row_keys[0] ^ row_keys[3];
+    }
+
     /**
      * Given a starting pit, a number of seeds, and a direction,
      * adds one seed to each of the next `num_seeds` pits
-     * in the given direction from the supplied pit. */
-    private int sowSeeds(int pit, int num_seeds, Direction d){
-        while(num_seeds > 0){
-            pit = getNextPit(pit, d);
-            board[turn_player][pit]++;
-            num_seeds--;
+     * in the given direction from the supplied pit. Returns the
+     * pit in which the last seed was sown.
+     *
+     * Rather than dropping seeds one at a time, every whole lap of
+     * 2 * SIZE seeds is added to each pit in the same pass that sows
+     * the remainder, so each pit is written at most once. Package-private
+     * so CCSowingBench can time it. */
+    int sowSeeds(int pit, int num_seeds, Direction d){
+        int row = 2 * SIZE;
+        int step = d == Direction.CCW ? 1 : row - 1;
+
+        int laps = num_seeds / row;
+        int remainder = num_seeds - laps * row;
+        int touched = laps > 0 ? row : remainder;
+
+        int[] pits = board[turn_player];
+        int next = pit;
+
+        for(int i = 1; i <= touched; i++){
+            next += step;
+            if(next >= row){
+                next -= row;
+            }
+
+            setSeeds(turn_player, next, pits[next] + laps + (i <= remainder ? 1 : 0));
         }
 
-        return pit;
+        return (pit + num_seeds * step) % row;
     }
 
     /**
      * Implements a normal move, using the given pit as the starting
      * pit. Implements all relays and captures caused by the move,
      * so this function does not return until the final seed in a
-     * sowing sequence is placed in an empty pit. */
+     * sowing sequence is placed in an empty pit.
+     *
+     * Each sowing is fully determined by the pits, the starting pit and
+     * the number of seeds in hand, so if that triple ever repeats the move
+     * can never end and would be cancelled at MAX_TURN_LENGTH anyway.
+     * Repeats are found with Brent's algorithm on a hash of the triple,
+     * which cancels such moves after at most a few cycles instead. Relay
+     * cycles seen in practice pass back through the move's first sowing,
+     * so that state is also compared at every step, catching those cycles
+     * after exactly one period. */
     private int runMove(int start_pit){
         int num_seeds = board[turn_player][start_pit];
-        board[turn_player][start_pit] = 0;
+        setSeeds(turn_player, start_pit, 0);
 
         int end_pit = 0;
         int num_iterations = 0;
 
+        // Brent's cycle detection: the saved relay state, and the number
+        // of sowings since it was saved and before it is replaced.
+        long first_key = relayKey(start_pit, num_seeds);
+        long saved_key = first_key;
+        int steps = 0;
+        int power = 1;
+
         while(true){
             if(num_iterations >= MAX_TURN_LENGTH){
                 winner = turn_player == 0 ? Board.CANCELLED0 : Board.CANCELLED1;
@@ -288,18 +704,36 @@ public class CCBoardState extends BoardState{
                     num_seeds = capture(turn_player, end_pit);
                 }else{
                     num_seeds = board[turn_player][end_pit];
-                    board[turn_player][end_pit] = 0;
+                    setSeeds(turn_player, end_pit, 0);
                     start_pit = end_pit;
                 }
             }else{
                 // Landed in an empty pit
                 break;
             }
+
+            long key = relayKey(start_pit, num_seeds);
+            if(key == saved_key || key == first_key){
+                countRelayCycle();
+                winner = turn_player == 0 ? Board.CANCELLED0 : Board.CANCELLED1;
+                return end_pit;
+            }
+
+            if(++steps == power){
+                saved_key = key;
+                power <<= 1;
+                steps = 0;
+            }
         }
 
         return end_pit;
     }
 
+    /** Hash of the pits together with the next sowing's start pit and seeds in hand. */
+    private long relayKey(int start_pit, int num_seeds){
+        return hash ^ ((start_pit * 257L + num_seeds + 1) * 0x9E3779B97F4A7C15L);
+    }
+
     /**
      * Given a pit index and a direction, returns the index of
      * the next pit in that direction. */
@@ -307,7 +741,7 @@ public class CCBoardState extends BoardState{
         if(d == Direction.CCW){
             return (pit + 1) % (SIZE * 2);
         }else if(d == Direction.CW){
-            return (pit - 1) % (SIZE * 2);
+            return (pit - 1 + SIZE * 2) % (SIZE * 2);
         }else{
             throw new IllegalArgumentException("Invalid direction.");
         }
@@ -352,38 +786,15 @@ public class CCBoardState extends BoardState{
         int captured_seeds = board[opponent_player_id][opponent_pit];
         captured_seeds += board[opponent_player_id][2 * SIZE - 1 - opponent_pit];
 
-        board[opponent_player_id][opponent_pit] = 0;
-        board[opponent_player_id][2 * SIZE - 1 - opponent_pit] = 0;
+        setSeeds(opponent_player_id, opponent_pit, 0);
+        setSeeds(opponent_player_id, 2 * SIZE - 1 - opponent_pit, 0);
 
         return captured_seeds;
     }
 
-    /** Return the number of seeds on the given player's side. */
-    private int totalSeeds(int player_id){
-        int num_seeds = 0;
-        int pit = 0;
-
-        for(int i = 0; i < 2 * SIZE; i++){
-            num_seeds += board[player_id][pit];
-            pit = getNextPit(pit, Direction.CCW);
-        }
-
-        return num_seeds;
-    }
-
     /** Return whether the given player has any more valid moves. */
     private boolean hasValidMoves(int player_id){
-        int pit = 0;
-
-        for(int i = 0; i < 2 * SIZE; i++){
-            if (board[player_id][pit] > 1){
-                return true;
-            }
-
-            pit = getNextPit(pit, Direction.CCW);
-        }
-
-        return false;
+        return playable[player_id] != 0;
     }
 
     /** Detect when a player has won. Called at the end of a turn. A player
@@ -420,11 +831,27 @@ public class CCBoardState extends BoardState{
         int[] temp = board[1];
         board[1] = board[0];
         board[0] = temp;
+
+        long own_key = row_keys[0];
+        long opp_key = row_keys[1];
+        row_keys[0] = row_keys[2];
+        row_keys[1] = row_keys[3];
+        row_keys[2] = own_key;
+        row_keys[3] = opp_key;
+        hash = row_keys[0] ^ row_keys[3];
+
+        int temp_total = seed_totals[0];
+        seed_totals[0] = seed_totals[1];
+        seed_totals[1] = temp_total;
+
+        int temp_playable = playable[0];
+        playable[0] = playable[1];
+        playable[1] = temp_playable;
     }
 
     @Override
     public Object clone() {
-        return new CCBoardState(board, turn_number, winner, turn_player, plays_first);
+        return new CCBoardState(this, false);
     }
 
     @Override
@@ -0,0 +1,297 @@
+package omweso;
+
+import boardgame.Board;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Chooses where to place the initial seeds, by simulated annealing over
+ * the ways of spreading NUM_INITIAL_SEEDS seeds over a player's pits.
+ *
+ * A placement is scored by the share of quick self-play games it wins.
+ * The games start from a fixed sample of likely opponent setups, or from
+ * the opponent's real setup if the board state already shows it. The
+ * games are played on CCPackedState with a mostly greedy policy: win if
+ * possible, else capture the most seeds, with an occasional random move.
+ * Every candidate is scored on the same games (same opponents, same
+ * random seeds), so differences in score come from the placement rather
+ * than from luck.
+ *
+ * One annealing chain runs on each thread. When the time is up, the best
+ * placement of each chain is scored again on a fresh set of games and the
+ * best of those is returned, so the result does not favour a chain that
+ * was merely lucky.
+ */
+public class CCInitOptimizer {
+
+    // Default search time, well inside Server.FIRST_MOVE_TIMEOUT.
+    public static final long DEFAULT_TIME_LIMIT = 20000;
+
+    // Plies after which a game is scored by seed count.
+    private static final int GAME_LIMIT = 300;
+
+    // Opponent setups sampled when the opponent hasn't placed yet.
+    private static final int OPPONENT_SAMPLES = 16;
+
+    // Starting temperature, in win rate, and the share of the time kept
+    // for the final comparison of chains.
+    private static final double START_TEMPERATURE = 0.05;
+    private static final double FINAL_SHARE = 0.1;
+
+    private long time_limit = DEFAULT_TIME_LIMIT;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int games = 160;
+    private long seed = System.nanoTime();
+
+    // Candidates scored by the last call to optimize, and the share of
+    // the final games won by the placement it returned.
+    private long evaluations;
+    private double score;
+
+    /** Set the time, in milliseconds, that optimize may take. */
+    public void setTimeLimit(long ms) {
+        time_limit = Math.max(1, ms);
+    }
+
+    /** Set the number of annealing chains run in parallel. */
+    public void setThreads(int n) {
+        threads = Math.max(1, n);
+    }
+
+    /** Set the number of games each candidate is scored on. */
+    public void setGamesPerCandidate(int n) {
+        games = Math.max(1, n);
+    }
+
+    /** Seed the random choices, for repeatable runs with a fixed number of threads. */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /** Return the number of candidates scored by the last call to optimize. */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /** Return the share of its final games won by the placement the last
+     * call to optimize returned. */
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * Return an initialization move for the player owning the given board
+     * state, which must still be in the initialization phase. */
+    public CCMove optimize(CCBoardState board_state) {
+        long start = System.currentTimeMillis();
+        long final_time = (long) (time_limit * FINAL_SHARE);
+        long deadline = start + time_limit - final_time;
+        boolean first = board_state.playFirst();
+
+        // The server only reveals the setups once both are placed, but a
+        // state built by hand may already hold the opponent's.
+        int[][] opponents;
+        if(board_state.getSeedCount(1) == CCBoardState.NUM_INITIAL_SEEDS){
+            int[] placed = new int[2 * CCBoardState.SIZE];
+            for(int pit = 0; pit < placed.length; pit++){
+                placed[pit] = board_state.getSeeds(1, pit);
+            }
+            opponents = new int[][] {placed};
+        }else{
+            opponents = sampleOpponents(new Rng(seed ^ 0x5DEECE66DL));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try{
+            List<ForkJoinTask<Chain>> chains = new ArrayList<ForkJoinTask<Chain>>();
+            for(int i = 0; i < threads; i++){
+                Chain chain = new Chain(first, opponents, seed + 0x9E3779B97F4A7C15L * (i + 1));
+                chains.add(pool.submit(() -> chain.anneal(deadline)));
+            }
+
+            // Score each chain's best placement on games none of them has seen.
+            int[] best = null;
+            double best_score = -1;
+            evaluations = 0;
+            for(ForkJoinTask<Chain> task : chains){
+                Chain chain = task.join();
+                evaluations += chain.evaluations;
+                double score = chain.score(chain.best, seed ^ 0xC2B2AE3D27D4EB4FL);
+                if(score > best_score){
+                    best_score = score;
+                    best = chain.best;
+                }
+            }
+            score = best_score;
+            return new CCMove(best);
+        }finally{
+            pool.shutdown();
+        }
+    }
+
+    /** Return likely opponent setups: scattered over all pits, scattered
+     * over the outer row, and heaped in a few pits. */
+    private int[][] sampleOpponents(Rng rng) {
+        int[][] setups = new int[OPPONENT_SAMPLES][];
+        for(int i = 0; i < setups.length; i++){
+            int[] setup = new int[2 * CCBoardState.SIZE];
+            int pits = i % 4 == 3 ? 4 : i % 4 == 2 ? CCBoardState.SIZE : 2 * CCBoardState.SIZE;
+            for(int k = 0; k < CCBoardState.NUM_INITIAL_SEEDS; k++){
+                setup[rng.next(pits)]++;
+            }
+            setups[i] = setup;
+        }
+        return setups;
+    }
+
+    /** One annealing chain, run by one thread. */
+    private final class Chain {
+        private final boolean first;
+        private final int[][] opponents;
+        private final Rng rng;
+        private final CCMoveBatch batch = new CCMoveBatch();
+        private final CCPackedState game = new CCPackedState();
+        private final CCPackedState[] starts;
+
+        int[] best;
+        long evaluations;
+
+        Chain(boolean first, int[][] opponents, long seed) {
+            this.first = first;
+            this.opponents = opponents;
+            this.rng = new Rng(seed);
+            this.starts = new CCPackedState[opponents.length];
+        }
+
+        Chain anneal(long deadline) {
+            int[] current = new int[2 * CCBoardState.SIZE];
+            for(int k = 0; k < CCBoardState.NUM_INITIAL_SEEDS; k++){
+                current[rng.next(current.length)]++;
+            }
+            double current_score = score(current, seed);
+            best = current.clone();
+            double best_score = current_score;
+
+            long start = System.currentTimeMillis();
+            long now = start;
+            int[] candidate = new int[current.length];
+            while(now < deadline){
+                // Move a few seeds from one pit to another.
+                System.arraycopy(current, 0, candidate, 0, current.length);
+                int from;
+                do{
+                    from = rng.next(candidate.length);
+                }while(candidate[from] == 0);
+                int to = (from + 1 + rng.next(candidate.length - 1)) % candidate.length;
+                int moved = 1 + rng.next(Math.min(3, candidate[from]));
+                candidate[from] -= moved;
+                candidate[to] += moved;
+
+                double score = score(candidate, seed);
+                double temperature = START_TEMPERATURE * (deadline - now) / Math.max(1, deadline - start);
+                if(score >= current_score || rng.nextDouble() < Math.exp((score - current_score) / temperature)){
+                    int[] swap = current;
+                    current = candidate;
+                    candidate = swap;
+                    current_score = score;
+                    if(score > best_score){
+                        best_score = score;
+                        best = current.clone();
+                    }
+                }
+                now = System.currentTimeMillis();
+            }
+            return this;
+        }
+
+        /** Return the share of games won with the given placement, playing
+         * game i with random seed game_seed + i. */
+        double score(int[] setup, long game_seed) {
+            evaluations++;
+            for(int i = 0; i < opponents.length; i++){
+                CCBoardState board_state = new CCBoardState();
+                board_state.move(new CCMove(first ? setup : opponents[i]));
+                board_state.move(new CCMove(first ? opponents[i] : setup));
+                starts[i] = new CCPackedState(board_state);
+            }
+
+            int us = first ? 0 : 1;
+            int points = 0; // Half points: 2 a win, 1 a draw
+            Rng game_rng = new Rng(0);
+            for(int i = 0; i < games; i++){
+                game_rng.reset(game_seed + i);
+                game.copyFrom(starts[i % starts.length]);
+                int winner = play(game_rng);
+                points += winner == us ? 2 : winner == 1 - us ? 0 : 1;
+            }
+            return points / (2.0 * games);
+        }
+
+        /** Play the game to the end and return the winner, or Board.DRAW. */
+        private int play(Rng game_rng) {
+            for(int plies = 0; !game.gameOver(); plies++){
+                if(plies == GAME_LIMIT){
+                    int diff = game.getSeedCount(0) - game.getSeedCount(1);
+                    return diff > 0 ? 0 : diff < 0 ? 1 : Board.DRAW;
+                }
+
+                int mover = game.getTurn();
+                game.expandAll(batch);
+                int mask = batch.getMask();
+                int choice = -1;
+                if(game_rng.next(8) == 0){
+                    // Explore: any legal move.
+                    for(int k = game_rng.next(Integer.bitCount(mask)); k > 0; k--){
+                        mask &= mask - 1;
+                    }
+                    choice = Integer.numberOfTrailingZeros(mask);
+                }else{
+                    // Greedy: a win, or else the biggest capture.
+                    int most = -1;
+                    for(; mask != 0; mask &= mask - 1){
+                        int pit = Integer.numberOfTrailingZeros(mask);
+                        int value = batch.getWinner(pit) == mover ? Integer.MAX_VALUE : batch.getCaptured(pit);
+                        if(value > most || (value == most && game_rng.next(2) == 0)){
+                            most = value;
+                            choice = pit;
+                        }
+                    }
+                }
+                game.loadFrom(batch, choice);
+            }
+            int winner = game.getWinner();
+            return winner == 0 || winner == 1 ? winner : Board.DRAW;
+        }
+    }
+
+    /** A small xorshift generator; each thread has its own. */
+    private static final class Rng {
+        private long state;
+
+        Rng(long seed) {
+            reset(seed);
+        }
+
+        void reset(long seed) {
+            // Mix the seed so that nearby seeds give unrelated sequences.
+            long z = seed + 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            state = (z ^ (z >>> 31)) | 1;
+        }
+
+        int next(int n) {
+            state ^= state << 13;
+            state ^= state >>> 7;
+            state ^= state << 17;
+            return (int) (((state >>> 32) * n) >>> 32);
+        }
+
+        double nextDouble() {
+            return next(1 << 30) / (double) (1 << 30);
+        }
+    }
+}
@@ -25,11 +25,27 @@ public class CCMove extends Move{
     MoveType move_type;
     boolean from_board = false;
 
+    // Whether this is one of the cached pit moves returned by ofPit. Shared
+    // moves are never modified; see forPlayer.
+    private final boolean shared;
+
+    // Cached pit moves, indexed by [player_id + 1][pit].
+    private final static CCMove[][] PIT_MOVES = new CCMove[3][2 * CCBoardState.SIZE];
+
+    static {
+        for(int p = 0; p < PIT_MOVES.length; p++){
+            for(int i = 0; i < PIT_MOVES[p].length; i++){
+                PIT_MOVES[p][i] = new CCMove(i, p - 1);
+            }
+        }
+    }
+
     /**
      * Create a degenerate move.
      */
     public CCMove(){
         this.move_type = MoveType.NOTHING;
+        this.shared = false;
     }
 
     /**
@@ -39,6 +55,7 @@ public class CCMove extends Move{
     public CCMove(int[] init){
         this.init = Arrays.copyOf(init, init.length);
         this.move_type = MoveType.INIT;
+        this.shared = false;
     }
 
     /**
@@ -48,6 +65,53 @@ public class CCMove extends Move{
     public CCMove(int pit){
         this.pit = pit;
         this.move_type = MoveType.PIT;
+        this.shared = false;
+    }
+
+    /** Create a shared pit move. Only used to fill PIT_MOVES. */
+    private CCMove(int pit, int player_id){
+        this.pit = pit;
+        this.player_id = player_id;
+        this.move_type = MoveType.PIT;
+        this.shared = true;
+    }
+
+    /**
+     * Return a standard pit-choosing move. Pit moves are only ever one of
+     * 2 * SIZE values, so a cached, immutable instance is returned rather
+     * than allocating a new one; it can be freely shared between threads
+     * and games. Out of range pits get a fresh (illegal) move.
+     * @param pit which pit to start from
+     */
+    public static CCMove ofPit(int pit){
+        return ofPit(pit, -1);
+    }
+
+    /**
+     * Return the cached pit move for the given pit, as played by the
+     * given player.
+     */
+    public static CCMove ofPit(int pit, int player_id){
+        if(pit >= 0 && pit < 2 * CCBoardState.SIZE && player_id >= -1 && player_id <= 1){
+            return PIT_MOVES[player_id + 1][pit];
+        }
+
+        CCMove move = new CCMove(pit);
+        move.player_id = player_id;
+        return move;
+    }
+
+    /**
+     * Parse a move from a string, as the String constructor does, but
+     * returning cached instances for pit moves. */
+    public static CCMove parse(String str){
+        String[] components = str.split(" ");
+
+        if(components[0].equals("PIT")){
+            return ofPit(Integer.valueOf(components[2]), Integer.valueOf(components[1]));
+        }
+
+        return new CCMove(str);
     }
 
     /**
@@ -60,6 +124,8 @@ public class CCMove extends Move{
      * @param str The string to parse.
      */
     public CCMove(String str) {
+        this.shared = false;
+
         String[] components = str.split(" ");
 
         String s = "";
@@ -116,8 +182,17 @@ public class CCMove extends Move{
     /* Members below here are only used by the server; Player agents
      * needn't worry about them. */
 
+    /**
+     * Set the player who plays this move. The shared moves returned by
+     * ofPit and parse are left as they are; forPlayer gives the instance
+     * for another player. Moves from getLegalMoves and the constructors
+     * are never shared. */
     @Override
     public void setPlayerID(int player_id) {
+        if(shared){
+            return;
+        }
+
         this.player_id = player_id;
     }
 
@@ -126,11 +201,32 @@ public class CCMove extends Move{
         return player_id;
     }
 
+    /** Set whether the move comes from the board. Like setPlayerID, leaves shared moves as they are. */
     @Override
     public void setFromBoard(boolean from_board) {
+        if(shared){
+            return;
+        }
+
         this.from_board = from_board;
     }
 
+    @Override
+    public Move forPlayer(int player_id, boolean from_board) {
+        if(!shared){
+            return super.forPlayer(player_id, from_board);
+        }
+
+        if(from_board){
+            CCMove move = new CCMove(pit);
+            move.player_id = player_id;
+            move.from_board = true;
+            return move;
+        }
+
+        return ofPit(pit, player_id);
+    }
+
     public boolean getFromBoard() {
         return from_board;
     }
@@ -0,0 +1,59 @@
+package omweso;
+
+/** Preallocated buffer holding the results of every legal pit move from one
+ * position, filled by CCPackedState.expandAll. Entries are indexed by the pit
+ * played; only pits set in getMask() hold valid results. A batch can be
+ * reused for any number of positions, but only by one thread at a time. */
+public final class CCMoveBatch {
+
+    // Number of pits a player can choose from.
+    public final static int MAX_MOVES = 2 * CCBoardState.SIZE;
+
+    // Pits whose results are held in this batch.
+    int mask;
+
+    // The successor positions, four packed words per pit (see CCPackedState).
+    final long[] boards = new long[4 * MAX_MOVES];
+
+    // Pit in which the last seed of each move was sown.
+    final int[] end_pits = new int[MAX_MOVES];
+
+    // Number of the opponent's seeds taken by each move.
+    final int[] captured = new int[MAX_MOVES];
+
+    // Winner after each move, or Board.NOBODY.
+    final int[] winners = new int[MAX_MOVES];
+
+    // Shared by all the successors.
+    int turn_number;
+    int turn_player;
+    int plays_first;
+
+    // Used by expandAll to play out each move.
+    final CCPackedState scratch = new CCPackedState();
+
+    /** Return the bitmask of pits whose moves are held in this batch. */
+    public int getMask() {
+        return mask;
+    }
+
+    /** Return the pit in which the last seed of the move from the given pit was sown. */
+    public int getEndPit(int pit) {
+        return end_pits[pit];
+    }
+
+    /** Return the number of opponent seeds captured by the move from the given pit. */
+    public int getCaptured(int pit) {
+        return captured[pit];
+    }
+
+    /** Return the winner after the move from the given pit, or Board.NOBODY. */
+    public int getWinner(int pit) {
+        return winners[pit];
+    }
+
+    /** Whether the move from the given pit ends the game. */
+    public boolean isTerminal(int pit) {
+        return winners[pit] != boardgame.Board.NOBODY;
+    }
+}
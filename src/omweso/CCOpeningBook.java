@@ -0,0 +1,206 @@
+package omweso;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A read-only table of precomputed moves for the opening: where to place
+ * the seeds, and replies for the first few pit moves. Built offline by
+ * alphaBeta.BookGenerator, and read through a memory-mapped file so that
+ * opening a book costs nothing and a lookup is a binary search over pages
+ * the operating system shares between all players on the machine.
+ *
+ * Positions are keyed from the point of view of the player to move, so a
+ * book works the same for either seat. Pit positions use the Zobrist key
+ * of CCBoardState. The server hides both setups until both are placed, so
+ * an uninitialized position is keyed by playFirst alone. A book must be
+ * regenerated if the Zobrist keys ever change.
+ *
+ * The file holds a header (MAGIC, VERSION, record count, record size)
+ * followed by fixed-size records sorted by key. A record is the key
+ * followed by RECORD_SIZE - 8 bytes of move: for an initialization move
+ * the number of seeds in each pit, and for a pit move PIT_FLAG | pit in
+ * the first byte and zeros after it. No pit starts with more than
+ * NUM_INITIAL_SEEDS seeds, so the flag never appears in an initialization
+ * move.
+ *
+ * Lookups may be made from any number of threads, and allocate only the
+ * move returned for an initialization position. */
+public class CCOpeningBook {
+
+    // "OMBK", the first four bytes of every book file.
+    public final static int MAGIC = 0x4F4D424B;
+    public final static int VERSION = 2; //2 added the first-turn bit to the pit position keys
+
+    private final static int HEADER_SIZE = 16;
+    private final static int RECORD_SIZE = 8 + 2 * CCBoardState.SIZE;
+
+    // Marks a pit move in the first byte of a record's move.
+    private final static int PIT_FLAG = 0x80;
+
+    // Keys of the uninitialized board, for the first and the second player.
+    private final static long INIT_FIRST_KEY = 0x6A09E667F3BCC908L;
+    private final static long INIT_SECOND_KEY = 0xBB67AE8584CAA73BL;
+
+    // Set by -Domweso.book=<file> to give every player that asks a book.
+    public final static String BOOK_PROPERTY = "omweso.book";
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+
+    private CCOpeningBook(MappedByteBuffer buffer, int size) {
+        this.buffer = buffer;
+        this.size = size;
+    }
+
+    /** Map the given book file into memory. */
+    public static CCOpeningBook open(File file) throws IOException {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel()){
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC){
+                throw new IOException(file + " is not an opening book.");
+            }
+            if(buffer.getInt(4) != VERSION || buffer.getInt(12) != RECORD_SIZE){
+                throw new IOException(file + " is an opening book of another version.");
+            }
+
+            int size = buffer.getInt(8);
+            if(size < 0 || HEADER_SIZE + (long) size * RECORD_SIZE > buffer.limit()){
+                throw new IOException(file + " is truncated.");
+            }
+
+            // The mapping stays valid after the channel is closed.
+            return new CCOpeningBook(buffer, size);
+        }
+    }
+
+    /**
+     * Return the book named by the omweso.book system property, opened
+     * once and shared, or null if the property is unset or the book can't
+     * be read. */
+    public static CCOpeningBook getDefault() {
+        return DefaultBook.BOOK;
+    }
+
+    private static class DefaultBook {
+        static final CCOpeningBook BOOK = load();
+
+        private static CCOpeningBook load() {
+            String name = System.getProperty(BOOK_PROPERTY);
+            if(name == null){
+                return null;
+            }
+
+            try{
+                return open(new File(name));
+            }catch(IOException e){
+                System.err.println("Playing without an opening book: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    /** Return the number of positions in the book. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the book move for the player owning the given board state,
+     * or null if the position isn't in the book. Only legal moves are
+     * returned, so a key collision can't make a player forfeit. */
+    public CCMove lookup(CCBoardState board_state) {
+        int record = find(key(board_state));
+        if(record < 0){
+            return null;
+        }
+
+        int pos = HEADER_SIZE + record * RECORD_SIZE + 8;
+        int first = buffer.get(pos) & 0xFF;
+        CCMove move;
+        if((first & PIT_FLAG) != 0){
+            move = CCMove.ofPit(first & ~PIT_FLAG);
+        }else{
+            int[] init = new int[2 * CCBoardState.SIZE];
+            for(int i = 0; i < init.length; i++){
+                init[i] = buffer.get(pos + i);
+            }
+            move = new CCMove(init);
+        }
+
+        return board_state.isLegal(move) ? move : null;
+    }
+
+    private int find(long key) {
+        // Binary search over the records, which are sorted by key.
+        int lo = 0;
+        int hi = size - 1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1;
+            long mid_key = buffer.getLong(HEADER_SIZE + mid * RECORD_SIZE);
+            if(mid_key < key){
+                lo = mid + 1;
+            }else if(mid_key > key){
+                hi = mid - 1;
+            }else{
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the key under which a book stores the given position. */
+    public static long key(CCBoardState board_state) {
+        if(!board_state.isInitialized()){
+            return board_state.playFirst() ? INIT_FIRST_KEY : INIT_SECOND_KEY;
+        }
+        return board_state.getHashKey();
+    }
+
+    /**
+     * Write a book holding the given moves, keyed as by key(). Pit moves
+     * and initialization moves may be mixed freely. */
+    public static void write(File file, Map<Long, CCMove> moves) throws IOException {
+        // Sorted by signed key, the order find expects.
+        TreeMap<Long, CCMove> sorted = new TreeMap<Long, CCMove>(moves);
+
+        try(DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))){
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            out.writeInt(RECORD_SIZE);
+
+            byte[] record = new byte[RECORD_SIZE - 8];
+            for(Map.Entry<Long, CCMove> entry : sorted.entrySet()){
+                CCMove move = entry.getValue();
+                Arrays.fill(record, (byte) 0);
+                if(move.getMoveType() == CCMove.MoveType.PIT){
+                    record[0] = (byte) (PIT_FLAG | move.getPit());
+                }else if(move.getMoveType() == CCMove.MoveType.INIT){
+                    int[] init = move.getInit();
+                    for(int i = 0; i < init.length; i++){
+                        record[i] = (byte) init[i];
+                    }
+                }else{
+                    throw new IllegalArgumentException("Only pit and initialization moves can go in a book.");
+                }
+
+                out.writeLong(entry.getKey());
+                out.write(record);
+            }
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package omweso;
+
+import boardgame.Board;
+
+/** A compact copy of an Omweso position, for use by search code that needs
+ * to hold or copy very large numbers of positions.
+ *
+ * The 32 pits are stored one byte per pit in four longs: pits 0 to SIZE - 1
+ * of a row in the ``lo'' word and pits SIZE to 2 * SIZE - 1 in the ``hi'' word.
+ * There are only 2 * NUM_INITIAL_SEEDS seeds in the game, so a byte can never
+ * overflow, and sowing whole laps around a row is a single addition per word.
+ *
+ * The rules implemented by move() are exactly those of CCBoardState.move() for
+ * pit-selection moves, including relays, captures, the MAX_TURN_LENGTH
+ * cancellation and winner detection. Initialization moves are not supported;
+ * build a packed state from an initialized CCBoardState instead.
+ *
+ * As with CCBoardState, the owner of the state is player 0. Copying a packed
+ * state never allocates (see copyFrom), and equals/hashCode are cheap. */
+public final class CCPackedState {
+
+    private final static int SIZE = CCBoardState.SIZE;
+
+    // Number of pits in one player's row.
+    private final static int ROW = 2 * SIZE;
+
+    // A one in every byte lane.
+    private final static long ONES = 0x0101010101010101L;
+
+    private final static long LOW_SEVEN = 0x7F7F7F7F7F7F7F7FL;
+
+    private final static long HIGH_BITS = 0x8080808080808080L;
+
+    // SPREAD[m] has a one in byte lane i iff bit i of m is set.
+    private final static long[] SPREAD = new long[256];
+
+    static {
+        for(int m = 0; m < 256; m++){
+            long lanes = 0;
+            for(int i = 0; i < 8; i++){
+                if(((m >>> i) & 1) != 0){
+                    lanes |= 1L << (8 * i);
+                }
+            }
+            SPREAD[m] = lanes;
+        }
+    }
+
+    // Player 0's pits (the owner of this state).
+    private long own_lo;
+    private long own_hi;
+
+    // Player 1's pits (the owner's opponent).
+    private long opp_lo;
+    private long opp_hi;
+
+    private int turn_number;
+
+    private int winner;
+
+    // ID of the player whose turn it is.
+    private int turn_player;
+
+    // ID of the player that plays first after init step
+    private int plays_first;
+
+    /** Create an empty, uninitialized position. */
+    public CCPackedState() {
+        winner = Board.NOBODY;
+    }
+
+    /** Create a packed copy of the given board state. */
+    public CCPackedState(CCBoardState board_state) {
+        own_lo = pack(board_state, 0, 0);
+        own_hi = pack(board_state, 0, SIZE);
+        opp_lo = pack(board_state, 1, 0);
+        opp_hi = pack(board_state, 1, SIZE);
+
+        turn_number = board_state.getTurnsPlayed();
+        winner = board_state.getWinner();
+        turn_player = board_state.getTurn();
+        plays_first = board_state.playFirst() ? 0 : 1;
+    }
+
+    /** Overwrite this position with the contents of another one. */
+    public void copyFrom(CCPackedState other) {
+        own_lo = other.own_lo;
+        own_hi = other.own_hi;
+        opp_lo = other.opp_lo;
+        opp_hi = other.opp_hi;
+
+        turn_number = other.turn_number;
+        winner = other.winner;
+        turn_player = other.turn_player;
+        plays_first = other.plays_first;
+    }
+
+    /** Expand this position back into a full CCBoardState. */
+    public CCBoardState toBoardState() {
+        int[][] board = new int[2][ROW];
+
+        for(int i = 0; i < ROW; i++){
+            board[0][i] = getSeeds(0, i);
+            board[1][i] = getSeeds(1, i);
+        }
+
+        return new CCBoardState(board, turn_number, winner, turn_player, plays_first);
+    }
+
+    /* Accessors, mirroring those of CCBoardState. */
+
+    /** Return the number of seeds in the given player's pit. */
+    public int getSeeds(int player_id, int pit) {
+        if(player_id == 0){
+            return lane(pit < SIZE ? own_lo : own_hi, pit);
+        }else{
+            return lane(pit < SIZE ? opp_lo : opp_hi, pit);
+        }
+    }
+
+    public boolean isInitialized() {
+        return turn_number > 0;
+    }
+
+    public int getTurn() {
+        return turn_player;
+    }
+
+    public int getTurnsPlayed() {
+        return turn_number;
+    }
+
+    public int getWinner() {
+        return winner;
+    }
+
+    public boolean haveWon() {
+        return winner == 0;
+    }
+
+    public boolean haveLost() {
+        return winner == 1;
+    }
+
+    public boolean tieGame() {
+        return winner == Board.DRAW;
+    }
+
+    public boolean playFirst() {
+        return plays_first == 0;
+    }
+
+    public boolean gameOver() {
+        return winner != Board.NOBODY;
+    }
+
+    /**
+     * Return a bitmask of the pits the player to move may play: bit i
+     * is set iff pit i holds more than one seed. Zero before the
+     * initialization phase is complete. */
+    public int legalPitMask() {
+        if(!isInitialized()){
+            return 0;
+        }
+
+        if(turn_player == 0){
+            return playableMask(own_lo) | (playableMask(own_hi) << SIZE);
+        }else{
+            return playableMask(opp_lo) | (playableMask(opp_hi) << SIZE);
+        }
+    }
+
+    /** Return whether the player to move may play the given pit. */
+    public boolean isLegal(int pit) {
+        return pit >= 0 && pit < ROW && ((legalPitMask() >>> pit) & 1) != 0;
+    }
+
+    /** Return the number of seeds on the given player's side. */
+    public int getSeedCount(int player_id) {
+        if(player_id == 0){
+            return laneSum(own_lo) + laneSum(own_hi);
+        }else{
+            return laneSum(opp_lo) + laneSum(opp_hi);
+        }
+    }
+
+    /**
+     * Play a pit-selection move for the player whose turn it is, with
+     * the same semantics as CCBoardState.move(). */
+    public void move(int pit) throws IllegalArgumentException {
+        if(!isLegal(pit)){
+            throw new IllegalArgumentException(
+                "Invalid move for current context. Pit: " + pit);
+        }
+
+        play(pit);
+    }
+
+    /**
+     * Compute the results of every legal move from this position into the
+     * given batch, leaving this position unchanged. Nothing is allocated,
+     * so engines can expand a node with one call and a reused batch. */
+    public void expandAll(CCMoveBatch batch) {
+        int mask = legalPitMask();
+        int mover = turn_player;
+        int opponent_seeds = getSeedCount(1 - mover);
+
+        CCPackedState child = batch.scratch;
+        batch.mask = mask;
+
+        for(; mask != 0; mask &= mask - 1){
+            int pit = Integer.numberOfTrailingZeros(mask);
+
+            child.copyFrom(this);
+            int end_pit = child.play(pit);
+
+            int k = 4 * pit;
+            batch.boards[k] = child.own_lo;
+            batch.boards[k + 1] = child.own_hi;
+            batch.boards[k + 2] = child.opp_lo;
+            batch.boards[k + 3] = child.opp_hi;
+
+            batch.end_pits[pit] = end_pit;
+            batch.captured[pit] = opponent_seeds - child.getSeedCount(1 - mover);
+            batch.winners[pit] = child.winner;
+        }
+
+        batch.turn_number = turn_number + (mover == 1 ? 1 : 0);
+        batch.turn_player = 1 - mover;
+        batch.plays_first = plays_first;
+    }
+
+    /** Load the result of one of the moves in a batch into this position. */
+    public void loadFrom(CCMoveBatch batch, int pit) {
+        int k = 4 * pit;
+        own_lo = batch.boards[k];
+        own_hi = batch.boards[k + 1];
+        opp_lo = batch.boards[k + 2];
+        opp_hi = batch.boards[k + 3];
+
+        turn_number = batch.turn_number;
+        winner = batch.winners[pit];
+        turn_player = batch.turn_player;
+        plays_first = batch.plays_first;
+    }
+
+    /** Change the perspective of this position, as CCBoardState.switchPerspective(). */
+    public void switchPerspective() {
+        turn_player = (turn_player + 1) % 2;
+        plays_first = (plays_first + 1) % 2;
+        if(winner == 0 || winner == 1){
+            winner = (winner + 1) % 2;
+        }
+
+        long temp = own_lo;
+        own_lo = opp_lo;
+        opp_lo = temp;
+
+        temp = own_hi;
+        own_hi = opp_hi;
+        opp_hi = temp;
+    }
+
+    /* Helper methods for implementing game logic. */
+
+    /** Play a move assumed to be legal, returning the pit the last seed was sown in. */
+    private int play(int pit) {
+        int end_pit = runMove(pit);
+
+        if(turn_player == 1){
+            turn_number++;
+        }
+
+        turn_player = (turn_player + 1) % 2;
+        updateWinner(turn_player);
+
+        return end_pit;
+    }
+
+    /**
+     * Implements a normal move for the player whose turn it is. Works on
+     * local copies of the two rows and writes them back at the end.
+     * Returns the pit in which the final seed was sown. */
+    private int runMove(int start_pit) {
+        long lo, hi, op_lo, op_hi;
+
+        if(turn_player == 0){
+            lo = own_lo; hi = own_hi; op_lo = opp_lo; op_hi = opp_hi;
+        }else{
+            lo = opp_lo; hi = opp_hi; op_lo = own_lo; op_hi = own_hi;
+        }
+
+        int num_seeds;
+        if(start_pit < SIZE){
+            num_seeds = lane(lo, start_pit);
+            lo &= ~laneMask(start_pit);
+        }else{
+            num_seeds = lane(hi, start_pit);
+            hi &= ~laneMask(start_pit);
+        }
+
+        boolean captures_allowed = turn_number > 1;
+        int num_iterations = 0;
+        int end_pit = start_pit;
+
+        // Cycle detection, as in CCBoardState.runMove, but comparing the
+        // relay states exactly since they are only six words.
+        final long first_lo = lo, first_hi = hi, first_op_lo = op_lo, first_op_hi = op_hi;
+        final int first_pit = start_pit, first_seeds = num_seeds;
+
+        long saved_lo = lo, saved_hi = hi, saved_op_lo = op_lo, saved_op_hi = op_hi;
+        int saved_pit = start_pit, saved_seeds = num_seeds;
+        int steps = 0;
+        int power = 1;
+
+        while(true){
+            if(num_iterations >= CCBoardState.MAX_TURN_LENGTH){
+                winner = turn_player == 0 ? Board.CANCELLED0 : Board.CANCELLED1;
+                break;
+            }
+
+            // Sow num_seeds seeds, starting after start_pit: whole laps
+            // first, then the remaining run of pits (which may wrap).
+            int laps = num_seeds >>> 4;
+            int run = ((1 << (num_seeds & (ROW - 1))) - 1) << ((start_pit + 1) & (ROW - 1));
+            run = (run | (run >>> ROW)) & 0xFFFF;
+
+            lo += laps * ONES + SPREAD[run & 0xFF];
+            hi += laps * ONES + SPREAD[run >>> SIZE];
+
+            end_pit = (start_pit + num_seeds) & (ROW - 1);
+            num_iterations++;
+
+            int landed = end_pit < SIZE ? lane(lo, end_pit) : lane(hi, end_pit);
+
+            if(landed <= 1){
+                // Landed in an empty pit
+                break;
+            }
+
+            boolean captured = false;
+
+            if(captures_allowed && end_pit >= SIZE){
+                int front = end_pit - SIZE;
+                int back = ROW - 1 - front;
+
+                int front_seeds = lane(op_lo, front);
+                int back_seeds = lane(op_hi, back);
+
+                if(front_seeds > 0 && back_seeds > 0){
+                    // Captured seeds are sown from the same starting pit.
+                    op_lo &= ~laneMask(front);
+                    op_hi &= ~laneMask(back);
+                    num_seeds = front_seeds + back_seeds;
+                    captured = true;
+                }
+            }
+
+            if(!captured){
+                num_seeds = landed;
+                if(end_pit < SIZE){
+                    lo &= ~laneMask(end_pit);
+                }else{
+                    hi &= ~laneMask(end_pit);
+                }
+                start_pit = end_pit;
+            }
+
+            boolean repeated =
+                (lo == saved_lo && hi == saved_hi && op_lo == saved_op_lo && op_hi == saved_op_hi
+                    && start_pit == saved_pit && num_seeds == saved_seeds)
+                || (lo == first_lo && hi == first_hi && op_lo == first_op_lo && op_hi == first_op_hi
+                    && start_pit == first_pit && num_seeds == first_seeds);
+
+            if(repeated){
+                CCBoardState.countRelayCycle();
+                winner = turn_player == 0 ? Board.CANCELLED0 : Board.CANCELLED1;
+                break;
+            }
+
+            if(++steps == power){
+                saved_lo = lo; saved_hi = hi; saved_op_lo = op_lo; saved_op_hi = op_hi;
+                saved_pit = start_pit;
+                saved_seeds = num_seeds;
+                power <<= 1;
+                steps = 0;
+            }
+        }
+
+        if(turn_player == 0){
+            own_lo = lo; own_hi = hi; opp_lo = op_lo; opp_hi = op_hi;
+        }else{
+            opp_lo = lo; opp_hi = hi; own_lo = op_lo; own_hi = op_hi;
+        }
+
+        return end_pit;
+    }
+
+    /** Detect when a player has won, as CCBoardState.updateWinner(). */
+    private void updateWinner(int next_to_play) {
+        if(winner != Board.NOBODY){
+            return;
+        }
+
+        if(!isInitialized() && next_to_play == 1){
+            return;
+        }
+
+        long row = next_to_play == 0 ? own_lo | own_hi : opp_lo | opp_hi;
+
+        // Some lane holds more than one seed iff a bit above bit 0 is set.
+        if((row & ~ONES) == 0){
+            winner = (next_to_play + 1) % 2;
+            return;
+        }
+
+        if(turn_number > CCBoardState.MAX_TURN){
+            winner = Board.DRAW;
+        }
+    }
+
+    /** Return the seed count in the lane of the given pit. */
+    private static int lane(long word, int pit) {
+        return (int) (word >>> ((pit & (SIZE - 1)) << 3)) & 0xFF;
+    }
+
+    /** Return the total of the lanes of a word (at most 255). */
+    private static int laneSum(long word) {
+        return (int) ((word * ONES) >>> 56);
+    }
+
+    private static long laneMask(int pit) {
+        return 0xFFL << ((pit & (SIZE - 1)) << 3);
+    }
+
+    /** Return an 8 bit mask of the lanes of a word holding more than one seed. */
+    private static int playableMask(long word) {
+        long halved = (word >>> 1) & LOW_SEVEN;
+        long nonzero = ((halved + LOW_SEVEN) | halved) & HIGH_BITS;
+        return (int) (((nonzero >>> 7) * 0x0102040810204080L) >>> 56);
+    }
+
+    private static long pack(CCBoardState board_state, int player_id, int from) {
+        long word = 0;
+        for(int i = SIZE - 1; i >= 0; i--){
+            word = (word << 8) | (board_state.getSeeds(player_id, from + i) & 0xFF);
+        }
+        return word;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof CCPackedState)){
+            return false;
+        }
+
+        CCPackedState other = (CCPackedState) o;
+        return own_lo == other.own_lo && own_hi == other.own_hi
+            && opp_lo == other.opp_lo && opp_hi == other.opp_hi
+            && turn_number == other.turn_number && winner == other.winner
+            && turn_player == other.turn_player && plays_first == other.plays_first;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = own_lo * 0x9E3779B97F4A7C15L;
+        h = (h ^ own_hi) * 0x9E3779B97F4A7C15L;
+        h = (h ^ opp_lo) * 0x9E3779B97F4A7C15L;
+        h = (h ^ opp_hi) * 0x9E3779B97F4A7C15L;
+        h ^= turn_player;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return toBoardState().toString();
+    }
+}
@@ -0,0 +1,138 @@
+package omweso;
+
+import boardgame.Board;
+
+import java.util.Random;
+
+/**
+ * Times CCBoardState.sowSeeds, which adds whole laps in one pass, against
+ * the loop it replaced, which dropped one seed at a time with getNextPit.
+ * The old loop is run with today's getNextPit, since the old one failed
+ * going clockwise from pit 0.
+ *
+ * The cases are relay-sized sowings, 2 to 4 * 2 * SIZE seeds, from every
+ * pit of random rows. Both kernels first sow every case once in both
+ * directions and must agree on the end pit and on every pit of the row.
+ * The timing is counterclockwise, the only way runMove sows. Each timed
+ * sowing is followed by putting the row back, which costs the
+ * same for both; that cost is timed on its own and reported, so it can be
+ * taken off. Also checks getNextPit, which used to return -1 going
+ * clockwise from pit 0.
+ *
+ * java omweso.CCSowingBench [rounds] [seed] */
+public class CCSowingBench {
+
+    private final static int ROW = 2 * CCBoardState.SIZE;
+    private final static int ROWS = 64;
+    private final static int MAX_SOWN = 4 * ROW;
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        checkNextPit();
+
+        Random rand = new Random(seed);
+        int[][] rows = new int[ROWS][ROW];
+        for(int[] row : rows){
+            for(int pit = 0; pit < ROW; pit++){
+                row[pit] = rand.nextInt(4) == 0 ? rand.nextInt(40) : rand.nextInt(3);
+            }
+        }
+
+        CCBoardState state = new CCBoardState(new int[][] {rows[0], new int[ROW]}, 1, Board.NOBODY, 0, 0);
+        CCBoardState.Direction[] directions = CCBoardState.Direction.values();
+
+        // Same end pit and row from both kernels.
+        long cases = 0;
+        int[] lapped = new int[ROW];
+        for(int[] row : rows){
+            for(int pit = 0; pit < ROW; pit++){
+                for(int n = 2; n <= MAX_SOWN; n++){
+                    for(CCBoardState.Direction d : directions){
+                        load(state, row);
+                        int end = state.sowSeeds(pit, n, d);
+                        for(int i = 0; i < ROW; i++) lapped[i] = state.getSeeds(0, i);
+                        load(state, row);
+                        int old_end = sowByPit(state, pit, n, d);
+                        if(end != old_end){
+                            fail("end pit " + end + ", the old loop gives " + old_end + " (pit " + pit + ", " + n + " seeds, " + d + ")");
+                        }
+                        for(int i = 0; i < ROW; i++){
+                            if(state.getSeeds(0, i) != lapped[i]){
+                                fail("pit " + i + " differs (pit " + pit + ", " + n + " seeds, " + d + ")");
+                            }
+                        }
+                        cases++;
+                    }
+                }
+            }
+        }
+        System.out.println("Both kernels agree on " + cases + " sowings");
+
+        for(int round = 0; round < 3; round++){ //The first rounds warm up the JIT
+            long reset = time(state, rows, rounds, 0);
+            long lap = time(state, rows, rounds, 1);
+            long by_pit = time(state, rows, rounds, 2);
+            long n = (long) rounds * ROWS * ROW * (MAX_SOWN - 1);
+            System.out.println(String.format(
+                "Per sowing: lap at once %.1f ns, pit by pit %.1f ns, putting the row back %.1f ns; " +
+                "kernels alone %.1f vs %.1f ns (%.2fx)",
+                lap / (double) n, by_pit / (double) n, reset / (double) n,
+                (lap - reset) / (double) n, (by_pit - reset) / (double) n, (by_pit - reset) / (double) Math.max(1, lap - reset)));
+        }
+    }
+
+    /** Time every case, sown by the given kernel (0 for none), in nanoseconds. */
+    private static long time(CCBoardState state, int[][] rows, int rounds, int kernel) {
+        long sink = 0;
+        long start = System.nanoTime();
+        for(int r = 0; r < rounds; r++){
+            for(int[] row : rows){
+                for(int pit = 0; pit < ROW; pit++){
+                    for(int n = 2; n <= MAX_SOWN; n++){
+                        if(kernel == 1) sink += state.sowSeeds(pit, n, CCBoardState.Direction.CCW);
+                        else if(kernel == 2) sink += sowByPit(state, pit, n, CCBoardState.Direction.CCW);
+                        load(state, row);
+                    }
+                }
+            }
+        }
+        long time = System.nanoTime() - start;
+        if(sink == 42) System.out.print(""); //Keep the results live
+        return time;
+    }
+
+    /** The sowing loop before laps were added in one pass. */
+    private static int sowByPit(CCBoardState state, int pit, int num_seeds, CCBoardState.Direction d) {
+        while(num_seeds > 0){
+            pit = state.getNextPit(pit, d);
+            state.setSeeds(0, pit, state.getSeeds(0, pit) + 1);
+            num_seeds--;
+        }
+        return pit;
+    }
+
+    private static void load(CCBoardState state, int[] row) {
+        for(int pit = 0; pit < ROW; pit++){
+            if(state.getSeeds(0, pit) != row[pit]) state.setSeeds(0, pit, row[pit]);
+        }
+    }
+
+    private static void checkNextPit() {
+        CCBoardState state = new CCBoardState();
+        for(int pit = 0; pit < ROW; pit++){
+            if(state.getNextPit(pit, CCBoardState.Direction.CCW) != (pit + 1) % ROW ||
+               state.getNextPit(pit, CCBoardState.Direction.CW) != (pit + ROW - 1) % ROW){
+                fail("getNextPit is wrong at pit " + pit);
+            }
+        }
+        System.out.println("getNextPit(0, CW) = " + state.getNextPit(0, CCBoardState.Direction.CW) +
+            " (the old (pit - 1) % " + ROW + " gave " + ((0 - 1) % ROW) + ")");
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAILED: " + message);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,153 @@
+package omweso;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that applyPit and undo leave a CCBoardState exactly as move and
+ * clone would. Random games are walked forwards and backwards on one
+ * state, and after every step the state is compared with a reference
+ * built by clone() and move(): the pits, the hash key, the seed totals,
+ * the legal pits, the turn number, the player to move and the winner.
+ * Views taken with getView between steps must not change afterwards.
+ *
+ * Half of the setups heap the seeds in a few pits, so that sowings go
+ * round the row more than once, and the games are counted to show that
+ * laps, relays and captures were all exercised. Exits with status 1 on
+ * the first difference.
+ *
+ * java omweso.CCUndoCheck [games] [seed] */
+public class CCUndoCheck {
+
+    // Deepest run of applied moves before the walk turns back.
+    private final static int MAX_APPLIED = 40;
+
+    private long steps, laps, captures, relays;
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        CCUndoCheck check = new CCUndoCheck();
+        Random rand = new Random(seed);
+        for(int g = 0; g < games; g++){
+            check.walk(start(rand, g % 2 == 0), rand);
+        }
+
+        System.out.println("OK: " + games + " games, " + check.steps + " steps, " + check.laps +
+            " moves with a lap, " + check.relays + " with a relay, " + check.captures + " with a capture");
+        if(check.laps == 0 || check.relays == 0 || check.captures == 0){
+            fail("the games did not exercise laps, relays and captures");
+        }
+    }
+
+    /** Return a position after both setups, heaped in a few pits if heaped. */
+    private static CCBoardState start(Random rand, boolean heaped) {
+        CCBoardState state = new CCBoardState();
+        for(int p = 0; p < 2; p++){
+            int[] init = new int[2 * CCBoardState.SIZE];
+            int pits = heaped ? 1 + rand.nextInt(3) : init.length;
+            for(int i = 0; i < CCBoardState.NUM_INITIAL_SEEDS; i++){
+                init[rand.nextInt(pits) * (init.length / pits)]++;
+            }
+            state.move(new CCMove(init));
+        }
+        return state;
+    }
+
+    /**
+     * Play and take back random moves on state until the game is over
+     * and every move has been taken back. */
+    private void walk(CCBoardState state, Random rand) {
+        List<CCBoardState> expected = new ArrayList<CCBoardState>();
+        expected.add((CCBoardState) state.clone());
+        boolean finished = false;
+
+        // A view taken while moves are applied must keep its pits whatever
+        // happens to the state afterwards.
+        CCBoardState view = null;
+        CCBoardState view_expected = null;
+
+        while(expected.size() > 1 || !finished){
+            int applied = expected.size() - 1;
+            boolean forward = !finished && !state.gameOver() && applied < MAX_APPLIED &&
+                (applied == 0 || rand.nextInt(4) != 0);
+
+            if(forward){
+                int legal = state.legalPitMask();
+                for(int k = rand.nextInt(Integer.bitCount(legal)); k > 0; k--){
+                    legal &= legal - 1;
+                }
+                int pit = Integer.numberOfTrailingZeros(legal);
+                count(state, pit);
+
+                CCBoardState reference = (CCBoardState) expected.get(applied).clone();
+                reference.move(CCMove.ofPit(pit));
+                expected.add(reference);
+                state.applyPit(pit);
+            }else{
+                state.undo();
+                expected.remove(applied);
+                if(state.gameOver() || applied >= MAX_APPLIED || rand.nextInt(8) == 0){
+                    finished = true;
+                }
+            }
+
+            steps++;
+            compare(state, expected.get(expected.size() - 1));
+
+            if(view != null){
+                compare(view, view_expected);
+            }
+            if(expected.size() > 1 && rand.nextInt(8) == 0){
+                view = state.getView(0);
+                view_expected = (CCBoardState) expected.get(expected.size() - 1).clone();
+            }
+        }
+    }
+
+    /** Count what playing pit will exercise: a lap, a relay, a capture. */
+    private void count(CCBoardState state, int pit) {
+        int turn = state.getTurn();
+        if(state.getSeeds(turn, pit) >= 2 * CCBoardState.SIZE){
+            laps++;
+        }
+        if(state.isCapturingMove(pit)){
+            captures++;
+        }
+        int end = (pit + state.getSeeds(turn, pit)) % (2 * CCBoardState.SIZE);
+        if(end != pit && state.getSeeds(turn, end) > 0){
+            relays++;
+        }
+    }
+
+    private static void compare(CCBoardState actual, CCBoardState expected) {
+        for(int p = 0; p < 2; p++){
+            for(int pit = 0; pit < 2 * CCBoardState.SIZE; pit++){
+                if(actual.getSeeds(p, pit) != expected.getSeeds(p, pit)){
+                    fail("pit " + p + "/" + pit + " differs:\n" + actual + "\nexpected:\n" + expected);
+                }
+            }
+            if(actual.getSeedCount(p) != expected.getSeedCount(p)){
+                fail("seed total of player " + p + " is " + actual.getSeedCount(p) + ", expected " + expected.getSeedCount(p));
+            }
+        }
+        if(actual.getHashKey() != expected.getHashKey()){
+            fail("hash key differs");
+        }
+        if(actual.legalPitMask() != expected.legalPitMask()){
+            fail("legal pits " + Integer.toBinaryString(actual.legalPitMask()) + ", expected " +
+                Integer.toBinaryString(expected.legalPitMask()));
+        }
+        if(actual.getTurnsPlayed() != expected.getTurnsPlayed() || actual.getTurn() != expected.getTurn() ||
+           actual.getWinner() != expected.getWinner()){
+            fail("turn, player to move or winner differs:\n" + actual + "\nexpected:\n" + expected);
+        }
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAILED: " + message);
+        System.exit(1);
+    }
+}